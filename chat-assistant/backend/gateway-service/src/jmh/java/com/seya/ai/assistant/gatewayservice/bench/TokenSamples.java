@@ -0,0 +1,48 @@
+package com.seya.ai.assistant.gatewayservice.bench;
+
+import java.util.Random;
+
+/**
+ * Token streams shaped like real LLM output, for the microbenchmarks.
+ */
+public final class TokenSamples {
+
+	// sub-word English pieces, the bulk of what the model sends
+	private static final String[] ASCII = {
+			" the", " of", "ing", " and", " to", " a", " in", "ed", " is", " that", " for", " it", ".", ",",
+			" gateway", " stream", "s", " token", " response", " with", " be", " on", " as", "ly", " model"
+	};
+
+	// accents, CJK and emoji (including surrogate pairs) as they show up in multilingual answers
+	private static final String[] UNICODE = {
+			" café", " naïve", " Straße", "日本", "語", "の", "文章", "です", "。", " привет", " мир",
+			" 😀", " 🚀", "👍🏽", " résumé", " ñ", "中文", "字符", " Ελλάδα", " √", " ∑", " €"
+	};
+
+	// code and quoted text: everything JSON has to escape
+	private static final String[] QUOTES = {
+			"\"", " \"", "\":", " {\"", "key", "\":", " \"value", "\\", "\\n", "\n", "\t", "    ", "}",
+			" print(\"", "hello", "\")", " 'x'", " </", "script", ">", " a\\\"b", "\r\n", " \u0001"
+	};
+
+	private TokenSamples() {
+	}
+
+	/**
+	 * {@code count} tokens drawn from one of ascii, unicode or quotes, with a fixed seed.
+	 */
+	public static String[] tokens(String distribution, int count) {
+		String[] vocabulary = switch (distribution) {
+			case "ascii" -> ASCII;
+			case "unicode" -> UNICODE;
+			case "quotes" -> QUOTES;
+			default -> throw new IllegalArgumentException("unknown token distribution " + distribution);
+		};
+		Random random = new Random(42);
+		String[] tokens = new String[count];
+		for (int i = 0; i < count; i++) {
+			tokens[i] = vocabulary[random.nextInt(vocabulary.length)];
+		}
+		return tokens;
+	}
+}
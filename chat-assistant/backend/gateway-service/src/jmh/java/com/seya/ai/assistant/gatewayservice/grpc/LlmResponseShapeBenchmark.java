@@ -0,0 +1,84 @@
+package com.seya.ai.assistant.gatewayservice.grpc;
+
+import com.example.gateway.grpc.LLMResponse;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.seya.ai.assistant.gatewayservice.bench.TokenSamples;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gateway CPU per 1,000 streamed tokens for the single-token LLMResponse shape (tokensPerMessage = 1) against
+ * batched messages: protobuf parsing of each message plus unpacking its tokens into a Reactor sink, as
+ * {@link GrpcClientService} does. gRPC framing and HTTP/2 costs come on top and scale with the message count too.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LlmResponseShapeBenchmark {
+
+	private static final int TOKENS = 1000;
+	private static final int REQUEST_WINDOW = 32;
+
+	@Param({"1", "4", "16"})
+	public int tokensPerMessage;
+
+	@Param({"ascii", "unicode"})
+	public String distribution;
+
+	// serialized messages, as they come off the wire
+	private byte[][] messages;
+
+	@Setup
+	public void setup() {
+		String[] tokens = TokenSamples.tokens(distribution, TOKENS);
+		List<byte[]> serialized = new ArrayList<>();
+		long seq = 0;
+		for (int i = 0; i < TOKENS; i += tokensPerMessage) {
+			LLMResponse.Builder message = LLMResponse.newBuilder();
+			if (tokensPerMessage == 1) {
+				message.setToken(tokens[i]);
+			} else {
+				message.addAllTokens(Arrays.asList(tokens).subList(i, Math.min(TOKENS, i + tokensPerMessage)))
+						.setChunkSeq(++seq);
+			}
+			serialized.add(message.build().toByteArray());
+		}
+		messages = serialized.toArray(new byte[0][]);
+	}
+
+	@Benchmark
+	public void thousandTokens(Blackhole blackhole) {
+		Flux.<String>create(sink -> {
+					try {
+						for (byte[] message : messages) {
+							GrpcClientService.emit(LLMResponse.parseFrom(message), sink);
+						}
+						sink.complete();
+					} catch (InvalidProtocolBufferException e) {
+						sink.error(e);
+					}
+				}, FluxSink.OverflowStrategy.BUFFER)
+				.limitRate(REQUEST_WINDOW)
+				.subscribe(blackhole::consume);
+	}
+}
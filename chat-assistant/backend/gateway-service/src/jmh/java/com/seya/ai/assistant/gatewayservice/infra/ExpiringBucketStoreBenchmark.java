@@ -0,0 +1,98 @@
+package com.seya.ai.assistant.gatewayservice.infra;
+
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.Refill;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate-limit bucket lookups with millions of distinct keys against a store capped at max-keys: latency
+ * percentiles of a lookup that adds a key (and evicts one at the cap) next to one for a key already tracked.
+ * The heap held by a full store is printed at the end of each trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class ExpiringBucketStoreBenchmark {
+
+	private static final int DISTINCT_KEYS = 2_000_000;
+
+	@Param({"10000", "200000"})
+	public int maxKeys;
+
+	private String[] keys;
+	private ExpiringBucketStore store;
+	private int next;
+	private long heapBytes;
+
+	private static Bucket bucket() {
+		return Bucket.builder().addLimit(Bandwidth.classic(10, Refill.greedy(10, Duration.ofSeconds(10)))).build();
+	}
+
+	@Setup(Level.Trial)
+	public void setup() {
+		keys = new String[DISTINCT_KEYS];
+		for (int i = 0; i < DISTINCT_KEYS; i++) {
+			keys[i] = "user-" + i;
+		}
+		long before = usedHeap();
+		store = new ExpiringBucketStore(ExpiringBucketStoreBenchmark::bucket, maxKeys, Duration.ofSeconds(10),
+				Duration.ZERO);
+		for (String key : keys) {
+			store.get(key).tryConsume(1);
+		}
+		heapBytes = usedHeap() - before;
+	}
+
+	@TearDown(Level.Trial)
+	public void report() {
+		System.out.printf(Locale.ROOT, "%nmax-keys %d after %d distinct keys: %d tracked, %.1f MiB heap (%.0f bytes per key)%n",
+				maxKeys, DISTINCT_KEYS, store.size(), heapBytes / 1048576.0, (double) heapBytes / store.size());
+		store.close();
+	}
+
+	/**
+	 * A key the store has not seen lately: added, and at the cap another one is evicted.
+	 */
+	@Benchmark
+	public boolean newKey() {
+		String key = keys[next];
+		next = next + 1 == DISTINCT_KEYS ? 0 : next + 1;
+		return store.get(key).tryConsume(1);
+	}
+
+	/**
+	 * A key that stays tracked.
+	 */
+	@Benchmark
+	public boolean trackedKey() {
+		return store.get(keys[DISTINCT_KEYS - 1]).tryConsume(1);
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
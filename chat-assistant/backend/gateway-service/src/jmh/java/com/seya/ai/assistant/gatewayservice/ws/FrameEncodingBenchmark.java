@@ -0,0 +1,111 @@
+package com.seya.ai.assistant.gatewayservice.ws;
+
+import com.seya.ai.assistant.gatewayservice.bench.TokenSamples;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON text frames against protobuf binary frames: CPU per frame here, bytes on the wire per frame printed at
+ * the end of each trial (payload only; the WebSocket header adds 2-4 bytes either way).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameEncodingBenchmark {
+
+	private static final int SAMPLES = 1024;
+	// offset of a frame somewhere in the middle of an answer
+	private static final long OFFSET = 317;
+
+	@Param({"json", "protobuf"})
+	public String encoding;
+
+	@Param({"ascii", "unicode", "quotes"})
+	public String distribution;
+
+	private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+	private ChatFrameEncoder encoder;
+	private List<List<String>> singles;
+	private List<List<String>> batches;
+	private int next;
+
+	private long singleBytes;
+	private long singleFrames;
+	private long batchBytes;
+	private long batchFrames;
+
+	@Setup
+	public void setup() {
+		encoder = ChatFrameEncoder.forRequest("protobuf".equals(encoding), bufferFactory, UUID.randomUUID().toString());
+		String[] tokens = TokenSamples.tokens(distribution, SAMPLES);
+		singles = new ArrayList<>();
+		for (String token : tokens) {
+			singles.add(List.of(token));
+		}
+		batches = new ArrayList<>();
+		for (int i = 0; i + 16 <= SAMPLES; i += 16) {
+			batches.add(List.of(Arrays.copyOfRange(tokens, i, i + 16)));
+		}
+	}
+
+	@Benchmark
+	public int singleTokenFrame() {
+		int size = release(encoder.tokens(OFFSET, singles.get(next++ & (SAMPLES - 1))));
+		singleBytes += size;
+		singleFrames++;
+		return size;
+	}
+
+	/**
+	 * One coalesced frame of 16 tokens.
+	 */
+	@Benchmark
+	public int coalescedFrame() {
+		int size = release(encoder.tokens(OFFSET, batches.get(next++ % batches.size())));
+		batchBytes += size;
+		batchFrames++;
+		return size;
+	}
+
+	@TearDown(Level.Trial)
+	public void report() {
+		if (singleFrames > 0) {
+			System.out.printf(Locale.ROOT, "%n%s/%s: %.1f bytes per single-token frame%n",
+					encoding, distribution, (double) singleBytes / singleFrames);
+		}
+		if (batchFrames > 0) {
+			System.out.printf(Locale.ROOT, "%n%s/%s: %.1f bytes per 16-token frame%n",
+					encoding, distribution, (double) batchBytes / batchFrames);
+		}
+	}
+
+	private static int release(WebSocketMessage message) {
+		int size = message.getPayload().readableByteCount();
+		message.release();
+		return size;
+	}
+}
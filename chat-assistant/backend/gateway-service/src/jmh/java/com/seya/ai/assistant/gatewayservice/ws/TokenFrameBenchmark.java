@@ -0,0 +1,133 @@
+package com.seya.ai.assistant.gatewayservice.ws;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.seya.ai.assistant.gatewayservice.bench.TokenSamples;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning tokens into WebSocket text frames: the original string path (Jackson-escape the token,
+ * concatenate the frame, encode it to UTF-8 as session.textMessage does) against {@link JsonFrameEncoder},
+ * which writes the frame straight into a pooled buffer.
+ * Run with -prof gc to see the bytes allocated per token.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenFrameBenchmark {
+
+	private static final int SAMPLES = 1024;
+	// offset of a frame somewhere in the middle of an answer
+	private static final long OFFSET = 317;
+
+	@Param({"ascii", "unicode", "quotes"})
+	public String distribution;
+
+	private final ObjectMapper om = new ObjectMapper();
+	private final String requestId = UUID.randomUUID().toString();
+	private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+	private JsonFrameEncoder encoder;
+
+	private String[] tokens;
+	private List<List<String>> batches;
+	private int next;
+
+	@Setup
+	public void setup() {
+		tokens = TokenSamples.tokens(distribution, SAMPLES);
+		// coalesced frames of 16 tokens, as the coalescer produces under a steady stream
+		batches = new ArrayList<>();
+		for (int i = 0; i + 16 <= SAMPLES; i += 16) {
+			batches.add(List.of(Arrays.copyOfRange(tokens, i, i + 16)));
+		}
+		encoder = new JsonFrameEncoder(bufferFactory, requestId);
+	}
+
+	private String nextToken() {
+		return tokens[next++ & (SAMPLES - 1)];
+	}
+
+	private List<String> nextBatch() {
+		return batches.get(next++ % batches.size());
+	}
+
+	@Benchmark
+	public String escapeToken() {
+		return json(nextToken());
+	}
+
+	@Benchmark
+	public String tokenFrame() {
+		return stringFrame(List.of(nextToken()));
+	}
+
+	@Benchmark
+	public byte[] tokenFrameBytes() {
+		return stringFrame(List.of(nextToken())).getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public int tokenFrameEncoded() {
+		return release(encoder.token(OFFSET, nextToken()));
+	}
+
+	/**
+	 * One coalesced frame of 16 tokens; divide by 16 to compare with the single-token frame.
+	 */
+	@Benchmark
+	public byte[] coalescedFrameBytes() {
+		return stringFrame(nextBatch()).getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public int coalescedFrameEncoded() {
+		return release(encoder.tokens(OFFSET, nextBatch()));
+	}
+
+	private static int release(WebSocketMessage message) {
+		int size = message.getPayload().readableByteCount();
+		message.release();
+		return size;
+	}
+
+	// the frame building ChatWebSocketHandler used before JsonFrameEncoder (plus the offset), kept as the baseline
+	private String stringFrame(List<String> tokens) {
+		if (tokens.size() == 1) {
+			return "{\"type\":\"token\",\"requestId\":" + json(requestId) + ",\"offset\":" + OFFSET
+					+ ",\"data\":" + json(tokens.get(0)) + "}";
+		}
+		return "{\"type\":\"tokens\",\"requestId\":" + json(requestId) + ",\"offset\":" + OFFSET
+				+ ",\"data\":" + json(tokens) + "}";
+	}
+
+	private String json(Object value) {
+		try {
+			return om.writeValueAsString(value);
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package com.seya.ai.assistant.gatewayservice.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.Map;
+
+/**
+ * User tiers: which tier a user belongs to, how much of the LLM tier each tier gets under contention,
+ * and how long an answer each tier may ask for.
+ */
+@ConfigurationProperties(prefix = "gateway.tiers")
+public record TierProperties(
+        String defaultTier,
+        Map<String, Integer> weights,    // tier -> fair-queuing weight
+        Map<String, String> users,       // userId -> tier
+        Map<String, Integer> maxTokens   // tier -> most tokens generated per answer
+) {
+}
@@ -0,0 +1,57 @@
+package com.seya.ai.assistant.gatewayservice.grpc;
+
+import java.util.List;
+
+/**
+ * Generation parameters of one request, sent to the LLM tier with the query.
+ * An empty model, a max-tokens of 0 and a null temperature leave the choice to the server.
+ */
+public record GenerationParams(String model, int maxTokens, Float temperature, List<String> stop) {
+
+    public static final GenerationParams DEFAULT = new GenerationParams("", 0, null, List.of());
+
+    private static final int MAX_MODEL_LENGTH = 128;
+    private static final int MAX_STOP_SEQUENCES = 4;
+    private static final int MAX_STOP_LENGTH = 64;
+
+    /**
+     * Validated parameters as sent by a client. Throws IllegalArgumentException for values the LLM tier would reject.
+     */
+    public GenerationParams {
+        model = model == null ? "" : model;
+        stop = stop == null ? List.of() : List.copyOf(stop);
+        if (model.length() > MAX_MODEL_LENGTH) {
+            throw new IllegalArgumentException("model name too long");
+        }
+        if (maxTokens < 0) {
+            throw new IllegalArgumentException("negative maxTokens");
+        }
+        if (temperature != null && !(temperature >= 0f && temperature <= 2f)) {
+            throw new IllegalArgumentException("temperature outside [0, 2]");
+        }
+        if (stop.size() > MAX_STOP_SEQUENCES
+                || stop.stream().anyMatch(s -> s.isEmpty() || s.length() > MAX_STOP_LENGTH)) {
+            throw new IllegalArgumentException("at most " + MAX_STOP_SEQUENCES + " non-empty stop sequences");
+        }
+    }
+
+    /**
+     * The same parameters with max-tokens limited to {@code cap}; a cap of 0 means no limit.
+     */
+    public GenerationParams capped(int cap) {
+        if (cap <= 0 || (maxTokens > 0 && maxTokens <= cap)) {
+            return this;
+        }
+        return new GenerationParams(model, cap, temperature, stop);
+    }
+
+    /**
+     * Distinguishes answers generated with different parameters, e.g. in cache keys; empty for the defaults.
+     */
+    public String key() {
+        if (equals(DEFAULT)) {
+            return "";
+        }
+        return "\u0000" + model + "\u0000" + maxTokens + "\u0000" + temperature + "\u0000" + String.join("\u0000", stop);
+    }
+}
@@ -1,111 +1,347 @@
 package com.seya.ai.assistant.gatewayservice.grpc;
 
-import com.example.gateway.generated.LLMProto;
-import com.example.gateway.generated.LLMServiceGrpc;
+import com.example.gateway.grpc.LLMResponse;
+import com.example.gateway.grpc.LLMServiceGrpc;
+import com.example.gateway.grpc.QueryRequest;
+import com.example.gateway.grpc.Turn;
 import io.grpc.CallOptions;
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ClientInterceptors;
+import io.grpc.Deadline;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
 import io.grpc.stub.ClientCalls;
-import io.grpc.stub.StreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.MetadataUtils;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import reactor.core.Exceptions;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
-import javax.annotation.PreDestroy;
 import java.time.Duration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 
 @Service
 public class GrpcClientService {
 
-    private final ManagedChannel channel;
-    private final io.grpc.MethodDescriptor<LLMProto.QueryRequest, LLMProto.LLMResponse> method;
+    // gRPC carries a single deadline per call, so the TTFT deadline travels as a header next to it
+    static final Metadata.Key<String> TTFT_TIMEOUT_HEADER =
+            Metadata.Key.of("x-ttft-timeout-ms", Metadata.ASCII_STRING_MARSHALLER);
+
+    private final LlmBackendPool backends;
+    private final MethodDescriptor<QueryRequest, LLMResponse> method;
+    private final int requestWindow;
+
+    private final boolean hedging;
+    private final Duration hedgeDelay;
+    private final HedgeBudget hedgeBudget;
+    private final LongAdder hedgesSent = new LongAdder();
+    private final LongAdder hedgesDenied = new LongAdder();
+    private final LongAdder truncated = new LongAdder();
+
+    private final Duration ttftTimeout;
+    private final Duration idleTimeout;
+    private final Duration totalTimeout;
+    private final ClientInterceptor ttftHeader;
+    private final LlmStreamMetrics metrics;
 
     public GrpcClientService(
-            @Value("${llm.gateway.host}") String host,
-            @Value("${llm.gateway.port}") int port) {
+            LlmBackendPool backends,
+            MeterRegistry registry,
+            @Value("${llm.gateway.request-window:32}") int requestWindow,
+            @Value("${llm.gateway.hedge.enabled:false}") boolean hedging,
+            @Value("${llm.gateway.hedge.delay-ms:1500}") long hedgeDelayMs,
+            @Value("${llm.gateway.hedge.budget-percent:10}") double hedgeBudgetPercent,
+            @Value("${llm.gateway.hedge.budget-burst:10}") int hedgeBudgetBurst,
+            @Value("${llm.gateway.timeouts.ttft-ms:10000}") long ttftTimeoutMs,
+            @Value("${llm.gateway.timeouts.idle-ms:15000}") long idleTimeoutMs,
+            @Value("${llm.gateway.timeouts.total-ms:120000}") long totalTimeoutMs) {
 
-        this.channel = ManagedChannelBuilder.forAddress(host, port)
-                .usePlaintext() // in prod use TLS
-                .keepAliveTime(30, java.util.concurrent.TimeUnit.SECONDS)
-                .build();
+        this.backends = backends;
 
         // Use the generated MethodDescriptor from the generated gRPC class
         this.method = LLMServiceGrpc.getStreamResponseMethod();
+        this.requestWindow = requestWindow;
+
+        this.hedging = hedging;
+        this.hedgeDelay = Duration.ofMillis(hedgeDelayMs);
+        this.hedgeBudget = new HedgeBudget(hedgeBudgetPercent, hedgeBudgetBurst);
+
+        this.ttftTimeout = Duration.ofMillis(ttftTimeoutMs);
+        this.idleTimeout = Duration.ofMillis(idleTimeoutMs);
+        this.totalTimeout = Duration.ofMillis(totalTimeoutMs);
+        Metadata headers = new Metadata();
+        headers.put(TTFT_TIMEOUT_HEADER, Long.toString(ttftTimeoutMs));
+        this.ttftHeader = MetadataUtils.newAttachHeadersInterceptor(headers);
+        this.metrics = new LlmStreamMetrics(registry);
     }
 
     /**
-     * Stream tokens from the LLM gateway for a single request.
-     * Returns a Flux of JSON strings (or plain strings). Each element corresponds to one LLMResponse token.
+     * Stream tokens from the LLM gateway for a single request, with earlier turns of the conversation (if any)
+     * sent along as history, and the generation parameters. Each element corresponds to one LLMResponse token.
+     * A stream that goes past its max-tokens is cut off there, which cancels the call.
+     * Inbound flow control is manual: messages are only requested from the server as the subscriber
+     * requests tokens, at most request-window ahead of it, so a slow subscriber pushes backpressure to the LLM
+     * service. Messages carrying a batch of tokens are unpacked here. Shared and resumable answers
+     * (SingleFlight, ResumeRegistry) pass on their readers' demand, so the bound holds for them too.
+     * Each subscription picks a backend from the pool and counts as one in-flight stream on it.
+     * With hedging enabled, a second call goes to another backend if no token arrived within the hedge delay,
+     * or as soon as the first call fails without a token; the first call to produce a token wins and the other
+     * one is cancelled.
+     * Three deadlines apply: time to first token, idle time between tokens, and total duration. They fail the
+     * stream with a TimeoutException (ttft_timeout, idle_timeout, deadline_exceeded). The total deadline is also
+     * the gRPC deadline of the call(s), and the TTFT deadline is sent along as a header, so the server can give up too.
      * Cancelling the Flux will cancel the gRPC call.
      */
-    public Flux<String> streamResponse(String correlationId, String userId, String query) {
-        LLMProto.QueryRequest req = LLMProto.QueryRequest.newBuilder()
+    public Flux<String> streamResponse(String correlationId, String userId, String query, List<Turn> history,
+                                       GenerationParams params) {
+        QueryRequest.Builder builder = QueryRequest.newBuilder()
                 .setCorrelationId(correlationId)
                 .setUserId(userId)
                 .setQuery(query)
-                .build();
+                .addAllHistory(history)
+                .setModelName(params.model())
+                .setMaxTokens(params.maxTokens())
+                .addAllStop(params.stop());
+        if (params.temperature() != null) {
+            builder.setTemperature(params.temperature());
+        }
+        QueryRequest req = builder.build();
 
-        return Flux.create((FluxSink<String> sink) -> {
-                    // Create a client call and invoke async server streaming
-                    io.grpc.ClientCall<LLMProto.QueryRequest, LLMProto.LLMResponse> call =
-                            channel.newCall(method, CallOptions.DEFAULT);
+        return Flux.defer(() -> {
+            // one absolute deadline per request, shared by a hedge so it does not get extra time
+            CallOptions options = CallOptions.DEFAULT
+                    .withDeadline(Deadline.after(totalTimeout.toMillis(), TimeUnit.MILLISECONDS));
+            Flux<String> tokens = hedging ? hedged(req, options) : attempt(backends.pick(), req, options);
 
-                    StreamObserver<LLMProto.LLMResponse> responseObserver = new StreamObserver<>() {
-                        @Override
-                        public void onNext(LLMProto.LLMResponse value) {
-                            // forward token text as JSON string or raw token
-                            String token = value.getToken();
-                            // Wrap as JSON or simple string as you prefer
-                            sink.next(token);
-                        }
+            return stallTimeouts(tokens)
+                    .onErrorMap(e -> Status.fromThrowable(e).getCode() == Status.Code.DEADLINE_EXCEEDED,
+                            e -> new TimeoutException("deadline_exceeded"))
+                    .transform(t -> cutOff(t, params.maxTokens()));
+        });
+    }
 
-                        @Override
-                        public void onError(Throwable t) {
-                            sink.error(t);
-                        }
+    /**
+     * Fail the stream with ttft_timeout or idle_timeout when the first token, or the next one, is late.
+     * A token only stamps its arrival time; one timer per stream checks the stamp and re-arms itself for
+     * whatever time is left, so a fast stream costs a timer per idle period rather than one per token.
+     */
+    private Flux<String> stallTimeouts(Flux<String> tokens) {
+        return Flux.defer(() -> {
+            StallWatch watch = new StallWatch(Schedulers.parallel());
+            return tokens
+                    .doOnNext(token -> watch.onToken())
+                    // cancels the call when the watch goes off, and the timeout error is raised after it
+                    .takeUntilOther(watch.expiry())
+                    .concatWith(Flux.defer(() -> watch.reason == null
+                            ? Flux.empty()
+                            : Flux.error(new TimeoutException(watch.reason))));
+        });
+    }
+
+    /**
+     * End the stream (and cancel the call) when a token beyond {@code maxTokens} arrives, in case the server
+     * does not honour the limit itself.
+     */
+    private Flux<String> cutOff(Flux<String> tokens, int maxTokens) {
+        if (maxTokens <= 0) {
+            return tokens;
+        }
+        int[] count = {0};
+        return tokens.handle((token, sink) -> {
+            if (++count[0] <= maxTokens) {
+                sink.next(token);
+            } else {
+                truncated.increment();
+                sink.complete();
+            }
+        });
+    }
+
+    private Flux<String> hedged(QueryRequest req, CallOptions options) {
+        return Flux.defer(() -> {
+            hedgeBudget.onPrimaryCall();
+            LlmBackendPool.Backend primary = backends.pick();
+
+            // a primary that ends without a token decides early: a backend failure sends the hedge at once,
+            // anything else (a bad request, an empty answer) is final
+            Sinks.One<Boolean> primaryEnded = Sinks.one();
+            Flux<String> first = attempt(primary, req, options)
+                    .doOnError(e -> primaryEnded.tryEmitValue(LlmBackendPool.isBackendFailure(e)))
+                    .doOnComplete(() -> primaryEnded.tryEmitValue(false));
+
+            // otherwise it only fires if the primary has not produced a token within the hedge delay
+            Flux<String> hedge = Mono.firstWithSignal(Mono.delay(hedgeDelay).thenReturn(true), primaryEnded.asMono())
+                    .flatMapMany(send -> send ? hedge(primary, req, options) : Flux.empty());
+
+            // the first source to emit a token wins, the other is cancelled
+            return Flux.firstWithValue(first, hedge)
+                    .onErrorResume(NoSuchElementException.class, e -> {
+                        // neither call produced a token: surface the real error, or complete empty. A call that
+                        // completed empty shows up as a NoSuchElementException of its own, which is not an error
+                        List<Throwable> errors = e.getCause() != null
+                                ? Exceptions.unwrapMultiple(e.getCause())
+                                : List.of(e.getSuppressed());
+                        return errors.stream()
+                                .filter(error -> !(error instanceof NoSuchElementException))
+                                .findFirst()
+                                .map(Flux::<String>error)
+                                .orElseGet(Flux::empty);
+                    });
+        });
+    }
+
+    /**
+     * The second call of a hedged request, on another backend than {@code primary}, if the budget allows one.
+     */
+    private Flux<String> hedge(LlmBackendPool.Backend primary, QueryRequest req, CallOptions options) {
+        LlmBackendPool.Backend secondary = backends.pick(primary);
+        if (secondary == primary) {
+            return Flux.empty();
+        }
+        if (!hedgeBudget.tryAcquire()) {
+            hedgesDenied.increment();
+            return Flux.empty();
+        }
+        hedgesSent.increment();
+        return attempt(secondary, req, options);
+    }
+
+    private Flux<String> attempt(LlmBackendPool.Backend backend, QueryRequest req, CallOptions options) {
+        return Flux.defer(() -> {
+            LlmStreamMetrics.Stream stream = metrics.start(backend.target());
+            return call(backend, req, options)
+                    .doOnSubscribe(s -> backend.streamStarted())
+                    .doOnNext(token -> stream.onToken())
+                    .doOnComplete(backend::onSuccess)
+                    .doOnError(backend::onFailure)
+                    .doFinally(signal -> {
+                        backend.streamEnded();
+                        stream.end(signal);
+                    });
+        });
+    }
+
+    public long hedgesSent() {
+        return hedgesSent.sum();
+    }
+
+    public long hedgesDenied() {
+        return hedgesDenied.sum();
+    }
+
+    /**
+     * Streams cut off because the server kept generating past max-tokens.
+     */
+    public long truncated() {
+        return truncated.sum();
+    }
+
+    private final class StallWatch {
+
+        // the scheduler's clock rather than System.nanoTime, so tests on virtual time see the same clock
+        private final Scheduler clock;
+        private final long startMillis;
+        private volatile long lastTokenMillis;
+        private volatile boolean started;
+        volatile String reason;
+
+        StallWatch(Scheduler clock) {
+            this.clock = clock;
+            this.startMillis = clock.now(TimeUnit.MILLISECONDS);
+        }
+
+        void onToken() {
+            lastTokenMillis = clock.now(TimeUnit.MILLISECONDS);
+            started = true;
+        }
+
+        Mono<Long> expiry() {
+            return Mono.defer(() -> {
+                boolean afterFirst = started;
+                long deadline = afterFirst
+                        ? lastTokenMillis + idleTimeout.toMillis()
+                        : startMillis + ttftTimeout.toMillis();
+                long left = deadline - clock.now(TimeUnit.MILLISECONDS);
+                if (left <= 0) {
+                    reason = afterFirst ? "idle_timeout" : "ttft_timeout";
+                    return Mono.just(0L);
+                }
+                return Mono.delay(Duration.ofMillis(left), clock).then(expiry());
+            });
+        }
+    }
 
+    /**
+     * Emit the tokens of one message: the batch in {@code tokens}, or else the single {@code token}.
+     */
+    static void emit(LLMResponse value, FluxSink<String> sink) {
+        int count = value.getTokensCount();
+        if (count == 0) {
+            // the final marker carries no text, and is not a token
+            if (!value.getIsFinal() || !value.getToken().isEmpty()) {
+                sink.next(value.getToken());
+            }
+            return;
+        }
+        // index loop, so no iterator or list view per message
+        for (int i = 0; i < count; i++) {
+            sink.next(value.getTokens(i));
+        }
+    }
+
+    private Flux<String> call(LlmBackendPool.Backend backend, QueryRequest req, CallOptions options) {
+        return Flux.create((FluxSink<String> sink) -> {
+                    ClientCall<QueryRequest, LLMResponse> call =
+                            ClientInterceptors.intercept(backend.channel(), ttftHeader).newCall(method, options);
+
+                    ClientCalls.asyncServerStreamingCall(call, req, new ClientResponseObserver<QueryRequest, LLMResponse>() {
                         @Override
-                        public void onCompleted() {
-                            sink.complete();
+                        public void beforeStart(ClientCallStreamObserver<QueryRequest> requestStream) {
+                            // nothing is requested until the subscriber asks for it
+                            requestStream.disableAutoRequestWithInitial(0);
                         }
-                    };
 
-                    // Start the call
-                    ClientCalls.asyncServerStreamingCall(call, req, new io.grpc.stub.StreamObserver<LLMProto.LLMResponse>() {
                         @Override
-                        public void onNext(LLMProto.LLMResponse value) {
-                            responseObserver.onNext(value);
+                        public void onNext(LLMResponse value) {
+                            emit(value, sink);
                         }
 
                         @Override
                         public void onError(Throwable t) {
-                            responseObserver.onError(t);
+                            sink.error(t);
                         }
 
                         @Override
                         public void onCompleted() {
-                            responseObserver.onCompleted();
+                            sink.complete();
                         }
                     });
 
+                    // the call is started at this point, so demand can be forwarded to it, one message per token
+                    // asked for; onRequest also replays any demand that arrived before registration
+                    sink.onRequest(n -> call.request((int) Math.min(n, Integer.MAX_VALUE)));
+
                     // If the subscriber cancels the subscription, cancel the gRPC call
-                    sink.onCancel(() -> {
-                        call.cancel("client cancelled", null);
-                    });
+                    sink.onCancel(() -> call.cancel("client cancelled", null));
 
+                    // a message may carry several tokens, so more can arrive than was requested; the excess
+                    // is buffered (BUFFER below), bounded by request-window messages
                 }, FluxSink.OverflowStrategy.BUFFER)
-                // choose a timeout guard to prevent runaway streams if you want
-                .timeout(Duration.ofMinutes(5))
-                ;
-    }
-
-    @PreDestroy
-    public void shutdown() {
-        if (!channel.isShutdown()) {
-            channel.shutdownNow();
-        }
+                // keep upstream demand bounded even if a downstream operator requests unbounded
+                .limitRate(requestWindow);
     }
 }
-
-//This code uses channel.newCall(method, ...). The method is supplied by the generated LLMServiceGrpc.getStreamResponseMethod() method in generated code. The generated package and class names depend on your proto options — the pom/proto setup above will generate them under com.example.gateway.generated if you set options accordingly. Adjust imports if your package names differ.
\ No newline at end of file
@@ -0,0 +1,41 @@
+package com.seya.ai.assistant.gatewayservice.grpc;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps hedged calls to a percentage of primary calls.
+ * Every primary call deposits {@code percent / 100} of a hedge into the budget and every hedge withdraws one,
+ * with the balance capped at {@code burst}. When the LLM tier is down and every call is slow, hedging therefore
+ * adds at most {@code percent}% extra load instead of doubling it.
+ */
+class HedgeBudget {
+
+    // balance is kept in thousandths of a hedge so deposits can be fractional
+    private static final long SCALE = 1000;
+
+    private final long deposit;
+    private final long max;
+    private final AtomicLong balance;
+
+    HedgeBudget(double percent, int burst) {
+        this.deposit = Math.round(percent / 100.0 * SCALE);
+        this.max = burst * SCALE;
+        this.balance = new AtomicLong(max);
+    }
+
+    void onPrimaryCall() {
+        balance.accumulateAndGet(deposit, (current, d) -> Math.min(max, current + d));
+    }
+
+    boolean tryAcquire() {
+        while (true) {
+            long current = balance.get();
+            if (current < SCALE) {
+                return false;
+            }
+            if (balance.compareAndSet(current, current - SCALE)) {
+                return true;
+            }
+        }
+    }
+}
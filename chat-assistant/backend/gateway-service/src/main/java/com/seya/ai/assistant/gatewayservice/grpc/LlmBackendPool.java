@@ -0,0 +1,388 @@
+package com.seya.ai.assistant.gatewayservice.grpc;
+
+import io.grpc.ClientInterceptor;
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Client-side load balancing across LLM service replicas.
+ * Every backend gets its own channel; each stream is placed with power-of-two-choices on the number of
+ * in-flight streams. Backends that fail several calls in a row (or whose channel is in TRANSIENT_FAILURE)
+ * are ejected for a while and picked again once the ejection expires.
+ * With resolve-dns, every configured hostname stands for all of its addresses, and they are looked up again
+ * every dns-refresh-seconds: new addresses join the pool, and vanished ones leave it once their streams end.
+ */
+@Component
+public class LlmBackendPool {
+
+    private static final Logger log = LoggerFactory.getLogger(LlmBackendPool.class);
+
+    private final List<String> configured;
+    private final Function<String, List<String>> resolver;
+    private final int ejectAfterFailures;
+    private final long ejectNanos;
+    private final ClientInterceptor[] interceptors;
+    private final Scheduler refresher;
+    private final Disposable refresh;
+
+    // replaced as a whole by refresh(), so pick() works on a consistent list without locking
+    private volatile List<Backend> backends;
+    // guarded by this
+    private final List<Listener> listeners = new ArrayList<>();
+
+    public LlmBackendPool(
+            @Value("${llm.gateway.host}") String host,
+            @Value("${llm.gateway.port}") int port,
+            @Value("${llm.gateway.backends:}") String backendList,
+            @Value("${llm.gateway.resolve-dns:false}") boolean resolveDns,
+            @Value("${llm.gateway.dns-refresh-seconds:30}") long dnsRefreshSeconds,
+            @Value("${llm.gateway.eject-after-failures:3}") int ejectAfterFailures,
+            @Value("${llm.gateway.eject-duration-ms:30000}") long ejectDurationMs) {
+        this(configured(host, port, backendList), resolveDns ? LlmBackendPool::lookup : List::of,
+                resolveDns ? Duration.ofSeconds(dnsRefreshSeconds) : Duration.ZERO, ejectAfterFailures, ejectDurationMs);
+    }
+
+    /**
+     * A pool over the given host:port targets, as is, with {@code interceptors} on every channel.
+     */
+    LlmBackendPool(List<String> targets, int ejectAfterFailures, long ejectDurationMs,
+                   ClientInterceptor... interceptors) {
+        this(targets, List::of, Duration.ZERO, ejectAfterFailures, ejectDurationMs, interceptors);
+    }
+
+    /**
+     * A pool over the addresses {@code resolver} returns for the configured targets (an empty list when a
+     * lookup fails), looked up again every {@code refreshInterval}; zero only resolves them once.
+     */
+    LlmBackendPool(List<String> configured, Function<String, List<String>> resolver, Duration refreshInterval,
+                   int ejectAfterFailures, long ejectDurationMs, ClientInterceptor... interceptors) {
+        if (configured.isEmpty()) {
+            throw new IllegalStateException("no LLM backends configured");
+        }
+        this.configured = List.copyOf(configured);
+        this.resolver = resolver;
+        this.ejectAfterFailures = ejectAfterFailures;
+        this.ejectNanos = TimeUnit.MILLISECONDS.toNanos(ejectDurationMs);
+        this.interceptors = interceptors;
+
+        // at startup a name that does not resolve is used as is, so the channel keeps trying it
+        Set<String> targets = new LinkedHashSet<>();
+        for (String target : this.configured) {
+            List<String> resolved = resolver.apply(target);
+            targets.addAll(resolved.isEmpty() ? List.of(target) : resolved);
+        }
+        List<Backend> pool = new ArrayList<>();
+        for (String target : targets) {
+            pool.add(newBackend(target));
+        }
+        this.backends = List.copyOf(pool);
+        log.info("LLM backends: {}", targets);
+
+        if (refreshInterval.isZero()) {
+            this.refresher = null;
+            this.refresh = Disposables.disposed();
+        } else {
+            this.refresher = Schedulers.newSingle("llm-dns-refresh", true);
+            this.refresh = refresher.schedulePeriodically(this::refresh,
+                    refreshInterval.toMillis(), refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static List<String> configured(String host, int port, String backendList) {
+        // llm.gateway.backends (host:port,host:port) wins over the single host/port pair
+        List<String> configured = new ArrayList<>();
+        for (String target : backendList.isBlank() ? List.of(host + ":" + port) : List.of(backendList.split(","))) {
+            String trimmed = target.trim();
+            if (!trimmed.isEmpty()) {
+                configured.add(trimmed);
+            }
+        }
+        return configured;
+    }
+
+    private Backend newBackend(String target) {
+        return new Backend(target, ManagedChannelBuilder.forTarget(target)
+                .usePlaintext() // in prod use TLS
+                .keepAliveTime(30, TimeUnit.SECONDS)
+                .intercept(interceptors)
+                .build());
+    }
+
+    /**
+     * Look the configured targets up again and swap added and vanished addresses in and out of the pool.
+     * Backends that stay keep their channel, in-flight count and ejection. A removed backend's channel is shut
+     * down gracefully, so streams still running on it finish. When any lookup fails the pool is left as it is,
+     * rather than shrinking on a DNS hiccup.
+     */
+    void refresh() {
+        Set<String> targets = new LinkedHashSet<>();
+        for (String target : configured) {
+            List<String> resolved;
+            try {
+                resolved = resolver.apply(target);
+            } catch (RuntimeException e) {
+                resolved = List.of();
+            }
+            if (resolved.isEmpty()) {
+                log.warn("could not resolve LLM backend {}, keeping the current backends", target);
+                return;
+            }
+            targets.addAll(resolved);
+        }
+
+        List<Backend> added = new ArrayList<>();
+        List<Backend> removed = new ArrayList<>();
+        List<Listener> toNotify;
+        synchronized (this) {
+            List<Backend> next = new ArrayList<>(targets.size());
+            for (Backend b : backends) {
+                if (targets.remove(b.target())) {
+                    next.add(b);
+                } else {
+                    removed.add(b);
+                }
+            }
+            for (String target : targets) {
+                Backend b = newBackend(target);
+                next.add(b);
+                added.add(b);
+            }
+            if (added.isEmpty() && removed.isEmpty()) {
+                return;
+            }
+            backends = List.copyOf(next);
+            toNotify = List.copyOf(listeners);
+        }
+        log.info("LLM backends changed: added {}, removed {}", targetsOf(added), targetsOf(removed));
+        for (Backend b : removed) {
+            b.channel().shutdown();
+        }
+        for (Listener listener : toNotify) {
+            added.forEach(listener::added);
+            removed.forEach(listener::removed);
+        }
+    }
+
+    /**
+     * Register {@code listener} for backends joining and leaving the pool; it is told about the current ones at once.
+     */
+    public void addListener(Listener listener) {
+        List<Backend> current;
+        synchronized (this) {
+            listeners.add(listener);
+            current = backends;
+        }
+        current.forEach(listener::added);
+    }
+
+    private static List<String> targetsOf(List<Backend> backends) {
+        return backends.stream().map(Backend::target).toList();
+    }
+
+    /**
+     * Pick a backend for a new stream.
+     */
+    public Backend pick() {
+        return pick(null);
+    }
+
+    /**
+     * Pick a backend for a new stream, avoiding {@code exclude} when another backend is available.
+     * Falls back to every backend when none is healthy, so an outage of the whole tier still surfaces as call errors.
+     */
+    public Backend pick(Backend exclude) {
+        long now = System.nanoTime();
+        List<Backend> pool = backends;
+        List<Backend> candidates = new ArrayList<>(pool.size());
+        for (Backend b : pool) {
+            if (b != exclude && b.isHealthy(now)) {
+                candidates.add(b);
+            }
+        }
+        if (candidates.isEmpty()) {
+            for (Backend b : pool) {
+                if (b != exclude) {
+                    candidates.add(b);
+                }
+            }
+        }
+        if (candidates.isEmpty()) {
+            return exclude;
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+
+        // power of two choices: two distinct random candidates, keep the one with fewer streams
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int i = random.nextInt(candidates.size());
+        int j = random.nextInt(candidates.size() - 1);
+        if (j >= i) {
+            j++;
+        }
+        Backend a = candidates.get(i);
+        Backend b = candidates.get(j);
+        return a.inFlight() <= b.inFlight() ? a : b;
+    }
+
+    public List<Backend> backends() {
+        return backends;
+    }
+
+    /**
+     * Current in-flight streams and health per backend.
+     */
+    public List<BackendStats> snapshot() {
+        long now = System.nanoTime();
+        List<Backend> pool = backends;
+        List<BackendStats> stats = new ArrayList<>(pool.size());
+        for (Backend b : pool) {
+            stats.add(new BackendStats(b.target(), b.inFlight(), b.isHealthy(now)));
+        }
+        return stats;
+    }
+
+    /**
+     * All addresses of the host in a host:port target, or an empty list if it does not resolve.
+     */
+    private static List<String> lookup(String target) {
+        int colon = target.lastIndexOf(':');
+        if (colon < 0) {
+            return List.of(target);
+        }
+        String host = target.substring(0, colon);
+        String port = target.substring(colon + 1);
+        try {
+            List<String> resolved = new ArrayList<>();
+            for (InetAddress address : InetAddress.getAllByName(host)) {
+                resolved.add(address.getHostAddress() + ":" + port);
+            }
+            return resolved;
+        } catch (UnknownHostException e) {
+            log.warn("could not resolve LLM backend {}", target);
+            return List.of();
+        }
+    }
+
+    /**
+     * Whether a call error is the backend's fault, i.e. another backend might well have answered.
+     */
+    static boolean isBackendFailure(Throwable t) {
+        // cancellations and bad requests are not the backend's fault
+        return switch (Status.fromThrowable(t).getCode()) {
+            case UNAVAILABLE, UNKNOWN, INTERNAL, DEADLINE_EXCEEDED, RESOURCE_EXHAUSTED -> true;
+            default -> false;
+        };
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refresh.dispose();
+        if (refresher != null) {
+            refresher.dispose();
+        }
+        for (Backend b : backends) {
+            if (!b.channel().isShutdown()) {
+                b.channel().shutdownNow();
+            }
+        }
+    }
+
+    public record BackendStats(String target, int inFlight, boolean healthy) {
+    }
+
+    /**
+     * Told about backends joining and leaving the pool, e.g. to keep per-backend metrics in step.
+     */
+    public interface Listener {
+
+        void added(Backend backend);
+
+        void removed(Backend backend);
+    }
+
+    public final class Backend {
+
+        private final String target;
+        private final ManagedChannel channel;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile boolean ejected;
+        private volatile long ejectedUntil;
+
+        private Backend(String target, ManagedChannel channel) {
+            this.target = target;
+            this.channel = channel;
+        }
+
+        public String target() {
+            return target;
+        }
+
+        public ManagedChannel channel() {
+            return channel;
+        }
+
+        public int inFlight() {
+            return inFlight.get();
+        }
+
+        void streamStarted() {
+            inFlight.incrementAndGet();
+        }
+
+        void streamEnded() {
+            inFlight.decrementAndGet();
+        }
+
+        void onSuccess() {
+            consecutiveFailures.set(0);
+        }
+
+        void onFailure(Throwable t) {
+            if (!isBackendFailure(t)) {
+                return;
+            }
+            if (consecutiveFailures.incrementAndGet() >= ejectAfterFailures) {
+                consecutiveFailures.set(0);
+                ejectedUntil = System.nanoTime() + ejectNanos;
+                ejected = true;
+                log.warn("ejecting LLM backend {} for {} ms after repeated failures ({})",
+                        target, TimeUnit.NANOSECONDS.toMillis(ejectNanos), t.toString());
+            }
+        }
+
+        boolean isHealthy(long now) {
+            if (ejected) {
+                if (now - ejectedUntil < 0) {
+                    return false;
+                }
+                ejected = false;
+            }
+            return channel.getState(false) != ConnectivityState.TRANSIENT_FAILURE;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.seya.ai.assistant.gatewayservice.grpc;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.SignalType;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latency metrics of gRPC streams to the LLM tier: time to first token, gap between tokens, stream duration,
+ * tokens per stream and tokens per second, tagged by backend (and outcome once the stream ends).
+ * Meters are looked up once per backend, so the per-token cost is a clock read and a timer update.
+ */
+final class LlmStreamMetrics {
+
+    private final MeterRegistry registry;
+    private final Map<String, BackendMeters> byBackend = new ConcurrentHashMap<>();
+    private final AtomicInteger active = new AtomicInteger();
+
+    LlmStreamMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        Gauge.builder("gateway.llm.streams.active", active, AtomicInteger::get)
+                .description("gRPC streams to the LLM tier currently open")
+                .register(registry);
+    }
+
+    /**
+     * Start timing one stream (one call to one backend; a hedged request is two streams).
+     */
+    Stream start(String backend) {
+        active.incrementAndGet();
+        return new Stream(byBackend.computeIfAbsent(backend, b -> new BackendMeters(registry, b)));
+    }
+
+    final class Stream {
+
+        private final BackendMeters meters;
+        private final long startNanos = System.nanoTime();
+        private long firstTokenNanos;
+        private long lastTokenNanos;
+        private long tokens;
+
+        private Stream(BackendMeters meters) {
+            this.meters = meters;
+        }
+
+        // signals are serialized, so plain fields are fine
+        void onToken() {
+            long now = System.nanoTime();
+            if (tokens++ == 0) {
+                firstTokenNanos = now;
+                meters.ttft.record(now - startNanos, TimeUnit.NANOSECONDS);
+            } else {
+                meters.tokenGap.record(now - lastTokenNanos, TimeUnit.NANOSECONDS);
+            }
+            lastTokenNanos = now;
+        }
+
+        void end(SignalType signal) {
+            active.decrementAndGet();
+            long duration = System.nanoTime() - startNanos;
+            Outcome outcome = switch (signal) {
+                case ON_COMPLETE -> meters.success;
+                case ON_ERROR -> meters.error;
+                default -> meters.cancelled;
+            };
+            outcome.duration.record(duration, TimeUnit.NANOSECONDS);
+            outcome.tokens.record(tokens);
+            // generation speed once streaming, so TTFT does not skew it
+            long streaming = lastTokenNanos - firstTokenNanos;
+            if (tokens > 1 && streaming > 0) {
+                meters.tokensPerSecond.record((tokens - 1) * 1e9 / streaming);
+            }
+        }
+    }
+
+    private static final class BackendMeters {
+
+        final Timer ttft;
+        final Timer tokenGap;
+        final DistributionSummary tokensPerSecond;
+        final Outcome success;
+        final Outcome error;
+        final Outcome cancelled;
+
+        BackendMeters(MeterRegistry registry, String backend) {
+            ttft = Timer.builder("gateway.llm.ttft")
+                    .description("time from starting a stream to its first token")
+                    .tag("backend", backend)
+                    .register(registry);
+            tokenGap = Timer.builder("gateway.llm.token.gap")
+                    .description("time between two consecutive tokens of a stream")
+                    .tag("backend", backend)
+                    .register(registry);
+            tokensPerSecond = DistributionSummary.builder("gateway.llm.stream.tokens.per.second")
+                    .description("generation speed of a stream after its first token")
+                    .tag("backend", backend)
+                    .register(registry);
+            success = new Outcome(registry, backend, "success");
+            error = new Outcome(registry, backend, "error");
+            cancelled = new Outcome(registry, backend, "cancelled");
+        }
+    }
+
+    private static final class Outcome {
+
+        final Timer duration;
+        final DistributionSummary tokens;
+
+        Outcome(MeterRegistry registry, String backend, String outcome) {
+            duration = Timer.builder("gateway.llm.stream.duration")
+                    .description("total duration of a stream")
+                    .tags("backend", backend, "outcome", outcome)
+                    .register(registry);
+            tokens = DistributionSummary.builder("gateway.llm.stream.tokens")
+                    .description("tokens received per stream")
+                    .baseUnit("tokens")
+                    .tags("backend", backend, "outcome", outcome)
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.seya.ai.assistant.gatewayservice.infra;
+
+import io.grpc.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AIMD concurrency limit for gateway-to-LLM streams.
+ * The limit grows by roughly one per limit-worth of healthy streams and is cut by backoff-ratio whenever a
+ * stream fails with an overload-type error or its time-to-first-token exceeds ttft-tolerance times the
+ * no-load baseline. Requests above the limit wait in a short queue and are shed with
+ * {@code overloaded} when the queue is full or the wait runs out.
+ * Freed slots are handed to waiting requests by weighted fair queuing across users, weighted by user tier,
+ * so under overload one user firing many starts cannot starve the others.
+ */
+@Component
+public class AdaptiveConcurrencyLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double ttftTolerance;
+    private final int maxQueue;
+    private final Duration maxQueueWait;
+    private final UserTierResolver tiers;
+
+    // guarded by this
+    private double limit;
+    private int inFlight;
+    private final WeightedFairQueue<Waiter> waiters;
+
+    // slowly rising minimum of observed TTFT, i.e. what a first token costs without queueing
+    private volatile long baselineTtftNanos = Long.MAX_VALUE;
+
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder admittedFromQueue = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+
+    public AdaptiveConcurrencyLimiter(
+            @Value("${gateway.concurrency.initial-limit:32}") int initialLimit,
+            @Value("${gateway.concurrency.min-limit:4}") int minLimit,
+            @Value("${gateway.concurrency.max-limit:512}") int maxLimit,
+            @Value("${gateway.concurrency.backoff-ratio:0.9}") double backoffRatio,
+            @Value("${gateway.concurrency.ttft-tolerance:2.0}") double ttftTolerance,
+            @Value("${gateway.concurrency.max-queue:100}") int maxQueue,
+            @Value("${gateway.concurrency.max-queue-wait-ms:2000}") long maxQueueWaitMs,
+            @Value("${gateway.concurrency.max-queue-per-user:10}") int maxQueuePerUser,
+            UserTierResolver tiers) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.ttftTolerance = ttftTolerance;
+        this.maxQueue = maxQueue;
+        this.maxQueueWait = Duration.ofMillis(maxQueueWaitMs);
+        this.waiters = new WeightedFairQueue<>(maxQueuePerUser);
+        this.tiers = tiers;
+    }
+
+    /**
+     * Run {@code upstream} under the limit. Subscription waits for a slot (or fails with {@link StreamRejectedException});
+     * the slot is held until the stream terminates or is cancelled, except while a {@link ConcurrencySlot} found in
+     * the subscriber context is paused.
+     */
+    public <T> Flux<T> limit(String userId, Flux<T> upstream) {
+        return Flux.deferContextual(context -> acquire(userId).flatMapMany(permit -> {
+            context.<ConcurrencySlot>getOrEmpty(ConcurrencySlot.class).ifPresent(slot -> slot.hold(permit));
+            return upstream
+                    .doOnNext(item -> permit.onItem())
+                    .doOnComplete(permit::onSuccess)
+                    .doOnError(permit::onError)
+                    .doFinally(signal -> permit.release());
+        }));
+    }
+
+    Mono<Permit> acquire(String userId) {
+        return Mono.defer(() -> {
+            int weight = tiers.weightOf(userId);
+            Waiter waiter = new Waiter();
+            synchronized (this) {
+                if (waiters.isEmpty() && inFlight < (int) limit) {
+                    inFlight++;
+                    return Mono.just(new Permit());
+                }
+                waiter.entry = waiters.size() < maxQueue ? waiters.offer(userId, weight, waiter) : null;
+                if (waiter.entry == null) {
+                    shed.increment();
+                    return Mono.error(new StreamRejectedException("overloaded"));
+                }
+            }
+            return waiter.sink.asMono()
+                    .timeout(maxQueueWait, Mono.defer(() -> onWaitTimeout(waiter)))
+                    .doOnCancel(() -> abandon(waiter));
+        });
+    }
+
+    private Mono<Permit> onWaitTimeout(Waiter waiter) {
+        synchronized (this) {
+            if (waiters.remove(waiter.entry)) {
+                shed.increment();
+                return Mono.error(new StreamRejectedException("overloaded"));
+            }
+        }
+        // granted just as the wait ran out: keep the slot
+        return Mono.just(waiter.granted);
+    }
+
+    private void abandon(Waiter waiter) {
+        Permit granted;
+        synchronized (this) {
+            if (waiters.remove(waiter.entry)) {
+                return;
+            }
+            granted = waiter.granted;
+        }
+        if (granted != null) {
+            granted.release();
+        }
+    }
+
+    private void onSlotFreed() {
+        List<Waiter> admitted = new ArrayList<>(1);
+        synchronized (this) {
+            inFlight--;
+            // the limit may have grown meanwhile, so admit as many waiters as now fit
+            while (!waiters.isEmpty() && inFlight < (int) limit) {
+                WeightedFairQueue.Entry<Waiter> entry = waiters.poll();
+                Waiter next = entry.item;
+                inFlight++;
+                next.granted = new Permit();
+                admitted.add(next);
+                admittedFromQueue.increment();
+                queueWaitNanos.add(System.nanoTime() - entry.enqueuedNanos);
+            }
+        }
+        for (Waiter w : admitted) {
+            w.sink.tryEmitValue(w.granted);
+        }
+    }
+
+    private synchronized void reclaim() {
+        inFlight++;
+    }
+
+    private void onSample(long ttftNanos) {
+        long baseline = baselineTtftNanos;
+        if (ttftNanos < baseline) {
+            baselineTtftNanos = ttftNanos;
+        } else {
+            // let the baseline drift up slowly so a permanently slower backend is not treated as overload forever
+            baselineTtftNanos = baseline + (ttftNanos - baseline) / 100;
+        }
+        if (baseline != Long.MAX_VALUE && ttftNanos > baseline * ttftTolerance) {
+            decrease();
+        }
+    }
+
+    private synchronized void increase() {
+        // additive increase, but only while the limit is actually being used
+        if (inFlight >= limit / 2) {
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+
+    private synchronized void decrease() {
+        double previous = limit;
+        limit = Math.max(minLimit, limit * backoffRatio);
+        if ((int) previous != (int) limit) {
+            log.debug("LLM concurrency limit lowered to {}", (int) limit);
+        }
+    }
+
+    private static boolean isOverload(Throwable t) {
+        if (t instanceof TimeoutException) {
+            return true;
+        }
+        return switch (Status.fromThrowable(t).getCode()) {
+            case UNAVAILABLE, RESOURCE_EXHAUSTED, DEADLINE_EXCEEDED -> true;
+            default -> false;
+        };
+    }
+
+    public synchronized int currentLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    public synchronized int queued() {
+        return waiters.size();
+    }
+
+    public long shed() {
+        return shed.sum();
+    }
+
+    public long admittedFromQueue() {
+        return admittedFromQueue.sum();
+    }
+
+    /**
+     * Total time requests admitted from the queue spent waiting; divide by admittedFromQueue for the mean.
+     */
+    public long queueWaitNanos() {
+        return queueWaitNanos.sum();
+    }
+
+    private static final class Waiter {
+        final Sinks.One<Permit> sink = Sinks.one();
+        WeightedFairQueue.Entry<Waiter> entry; // guarded by the limiter
+        Permit granted; // guarded by the limiter
+    }
+
+    /**
+     * One upstream stream slot. Released exactly once; while paused it does not count against the limit.
+     */
+    final class Permit {
+
+        private final long startNanos = System.nanoTime();
+        private boolean firstItemSeen;
+        private boolean slowStart;
+
+        // guarded by this
+        private boolean paused;
+        private boolean released;
+
+        void onItem() {
+            if (!firstItemSeen) {
+                firstItemSeen = true;
+                long ttft = System.nanoTime() - startNanos;
+                long baseline = baselineTtftNanos;
+                slowStart = baseline != Long.MAX_VALUE && ttft > baseline * ttftTolerance;
+                onSample(ttft);
+            }
+        }
+
+        void onSuccess() {
+            if (!slowStart) {
+                increase();
+            }
+        }
+
+        void onError(Throwable t) {
+            if (isOverload(t)) {
+                decrease();
+            }
+        }
+
+        void pause() {
+            synchronized (this) {
+                if (paused || released) {
+                    return;
+                }
+                paused = true;
+            }
+            onSlotFreed();
+        }
+
+        void resume() {
+            synchronized (this) {
+                if (!paused || released) {
+                    return;
+                }
+                paused = false;
+            }
+            reclaim();
+        }
+
+        void release() {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                if (paused) {
+                    return;
+                }
+            }
+            onSlotFreed();
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.seya.ai.assistant.gatewayservice.infra;
+
+import io.grpc.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Circuit breaker around the LLM gRPC streams.
+ * Outcomes of the last window-size calls are kept in a ring; once at least min-calls are recorded and either the
+ * failure rate or the slow-call rate (TTFT above slow-call-ms) reaches its threshold, the breaker opens and every
+ * new stream fails at once with {@code unavailable}. After open-duration-ms it lets half-open-calls trial streams
+ * through and closes again if they are healthy. A stream's outcome is decided by its first event: first token
+ * (success or slow), or an error.
+ * State changes are published as {@link StateChanged} application events.
+ */
+@Component
+public class CircuitBreaker {
+
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    public record StateChanged(State from, State to) {
+    }
+
+    private static final byte SUCCESS = 0;
+    private static final byte FAILURE = 1;
+    private static final byte SLOW = 2;
+
+    private final ApplicationEventPublisher events;
+    private final int minCalls;
+    private final double failureRateThreshold;
+    private final double slowRateThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final int halfOpenCalls;
+
+    // guarded by this
+    private final byte[] window;
+    private int windowPos;
+    private int recorded;
+    private int failures;
+    private int slowCalls;
+    private long openedAt;
+    private int halfOpenPermits;
+    private int halfOpenResults;
+
+    // read without locking on the fast path
+    private volatile State state = State.CLOSED;
+
+    private final LongAdder rejected = new LongAdder();
+
+    public CircuitBreaker(
+            ApplicationEventPublisher events,
+            @Value("${gateway.circuit-breaker.window-size:50}") int windowSize,
+            @Value("${gateway.circuit-breaker.min-calls:10}") int minCalls,
+            @Value("${gateway.circuit-breaker.failure-rate-percent:50}") double failureRatePercent,
+            @Value("${gateway.circuit-breaker.slow-call-rate-percent:80}") double slowCallRatePercent,
+            @Value("${gateway.circuit-breaker.slow-call-ms:5000}") long slowCallMs,
+            @Value("${gateway.circuit-breaker.open-duration-ms:10000}") long openDurationMs,
+            @Value("${gateway.circuit-breaker.half-open-calls:3}") int halfOpenCalls) {
+        this.events = events;
+        this.window = new byte[windowSize];
+        this.minCalls = minCalls;
+        this.failureRateThreshold = failureRatePercent / 100.0;
+        this.slowRateThreshold = slowCallRatePercent / 100.0;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMs);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMs);
+        this.halfOpenCalls = halfOpenCalls;
+    }
+
+    /**
+     * Run {@code upstream} through the breaker; while open it fails immediately with a {@link StreamRejectedException}.
+     */
+    public <T> Flux<T> protect(Flux<T> upstream) {
+        return protect(upstream, UnaryOperator.identity());
+    }
+
+    /**
+     * Run {@code upstream} through the breaker after {@code admission} (e.g. a concurrency limit) lets it start.
+     * The breaker is checked before admission, so an open breaker does not wait for a slot, but the slow-call
+     * timer only starts once {@code upstream} is subscribed, so time spent waiting for admission is not held
+     * against the LLM tier.
+     */
+    public <T> Flux<T> protect(Flux<T> upstream, UnaryOperator<Flux<T>> admission) {
+        return Flux.defer(() -> {
+            if (!tryAcquire()) {
+                rejected.increment();
+                return Flux.error(new StreamRejectedException("unavailable"));
+            }
+            AtomicLong start = new AtomicLong();
+            AtomicBoolean decided = new AtomicBoolean();
+            return admission.apply(upstream.doOnSubscribe(s -> start.set(System.nanoTime())))
+                    .doOnNext(item -> {
+                        if (decided.compareAndSet(false, true)) {
+                            record(System.nanoTime() - start.get() > slowCallNanos ? SLOW : SUCCESS);
+                        }
+                    })
+                    .doOnError(t -> {
+                        if (decided.compareAndSet(false, true)) {
+                            if (isFailure(t)) {
+                                record(FAILURE);
+                            } else {
+                                releaseTrial();
+                            }
+                        }
+                    })
+                    .doFinally(signal -> {
+                        // completed empty or cancelled before any outcome: give a half-open trial slot back
+                        if (decided.compareAndSet(false, true)) {
+                            releaseTrial();
+                        }
+                    });
+        });
+    }
+
+    private boolean tryAcquire() {
+        State s = state;
+        if (s == State.CLOSED) {
+            return true;
+        }
+        StateChanged change = null;
+        boolean permitted;
+        synchronized (this) {
+            if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+                change = transition(State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN && halfOpenPermits < halfOpenCalls) {
+                halfOpenPermits++;
+                permitted = true;
+            } else {
+                permitted = state == State.CLOSED;
+            }
+        }
+        publish(change);
+        return permitted;
+    }
+
+    private void record(byte outcome) {
+        StateChanged change = null;
+        synchronized (this) {
+            if (state == State.HALF_OPEN) {
+                if (outcome != SUCCESS) {
+                    change = open();
+                } else if (++halfOpenResults >= halfOpenCalls) {
+                    change = transition(State.CLOSED);
+                }
+            } else if (state == State.CLOSED) {
+                add(outcome);
+                if (recorded >= minCalls
+                        && (failures >= failureRateThreshold * recorded || slowCalls >= slowRateThreshold * recorded)) {
+                    change = open();
+                }
+            }
+        }
+        publish(change);
+    }
+
+    private synchronized void releaseTrial() {
+        if (state == State.HALF_OPEN && halfOpenPermits > 0) {
+            halfOpenPermits--;
+        }
+    }
+
+    private void add(byte outcome) {
+        if (recorded == window.length) {
+            byte evicted = window[windowPos];
+            if (evicted == FAILURE) {
+                failures--;
+            } else if (evicted == SLOW) {
+                slowCalls--;
+            }
+        } else {
+            recorded++;
+        }
+        window[windowPos] = outcome;
+        windowPos = (windowPos + 1) % window.length;
+        if (outcome == FAILURE) {
+            failures++;
+        } else if (outcome == SLOW) {
+            slowCalls++;
+        }
+    }
+
+    private StateChanged open() {
+        openedAt = System.nanoTime();
+        return transition(State.OPEN);
+    }
+
+    private StateChanged transition(State to) {
+        State from = state;
+        state = to;
+        // every state starts from a clean slate
+        recorded = 0;
+        windowPos = 0;
+        failures = 0;
+        slowCalls = 0;
+        halfOpenPermits = 0;
+        halfOpenResults = 0;
+        return new StateChanged(from, to);
+    }
+
+    private void publish(StateChanged change) {
+        if (change == null) {
+            return;
+        }
+        if (change.to() == State.OPEN) {
+            log.warn("LLM circuit breaker {} -> {}", change.from(), change.to());
+        } else {
+            log.info("LLM circuit breaker {} -> {}", change.from(), change.to());
+        }
+        events.publishEvent(change);
+    }
+
+    private static boolean isFailure(Throwable t) {
+        if (t instanceof TimeoutException) {
+            return true;
+        }
+        if (t instanceof StreamRejectedException) {
+            // shed by our own limiter, says nothing about the LLM tier
+            return false;
+        }
+        return switch (Status.fromThrowable(t).getCode()) {
+            case UNAVAILABLE, UNKNOWN, INTERNAL, DEADLINE_EXCEEDED, RESOURCE_EXHAUSTED -> true;
+            default -> false;
+        };
+    }
+
+    public State state() {
+        return state;
+    }
+
+    public long rejected() {
+        return rejected.sum();
+    }
+}
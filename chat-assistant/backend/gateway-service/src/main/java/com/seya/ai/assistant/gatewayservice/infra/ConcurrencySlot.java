@@ -0,0 +1,38 @@
+package com.seya.ai.assistant.gatewayservice.infra;
+
+/**
+ * The concurrency-limit slot of a stream, for whoever holds the stream on behalf of a reader that may go away.
+ * {@link #pause()} gives the slot back while nobody reads the stream, {@link #resume()} takes it again.
+ * Put it into the subscriber context under its class; {@link AdaptiveConcurrencyLimiter#limit} hands it the slot
+ * once the stream is admitted, and a pause that came first takes effect then.
+ */
+public final class ConcurrencySlot {
+
+    // guarded by this
+    private AdaptiveConcurrencyLimiter.Permit permit;
+    private boolean paused;
+
+    synchronized void hold(AdaptiveConcurrencyLimiter.Permit permit) {
+        this.permit = permit;
+        if (paused) {
+            permit.pause();
+        }
+    }
+
+    public synchronized void pause() {
+        paused = true;
+        if (permit != null) {
+            permit.pause();
+        }
+    }
+
+    /**
+     * Take the slot again, even if the limit is full: the stream is running already.
+     */
+    public synchronized void resume() {
+        paused = false;
+        if (permit != null) {
+            permit.resume();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.seya.ai.assistant.gatewayservice.infra;
+
+import io.github.bucket4j.Bucket;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Per-key Bucket4j buckets with a bounded footprint.
+ * A bucket that has not been touched for {@code idleTtl} and is full again can be dropped losslessly:
+ * the next request for that key simply gets a fresh (full) bucket. A background sweep removes such buckets,
+ * and a new key that takes the store past {@code maxKeys} evicts the least recently used of a small sample
+ * of entries, so neither the map nor tryConsume latency grows with the number of distinct keys.
+ * Samples are taken in turn from a cursor that walks the whole map, so every key is looked at equally often.
+ * A bucket with a negative balance is never evicted to make room, as that would forgive its debt; a sample
+ * of nothing but debtors leaves the store over {@code maxKeys} until they refill.
+ */
+public class ExpiringBucketStore implements AutoCloseable {
+
+    private static final int EVICTION_SAMPLE = 16;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Supplier<Bucket> bucketFactory;
+    private final int maxKeys;
+    private final long idleNanos;
+    private final Predicate<Bucket> refilled;
+    private final Scheduler sweeper;
+    private final Disposable sweep;
+
+    private final Object evictionLock = new Object();
+    // where the next eviction sample starts; guarded by evictionLock
+    private Iterator<Map.Entry<String, Entry>> cursor;
+
+    /**
+     * @param idleTtl       how long a bucket may sit unused before it is dropped; at least the time it takes to refill
+     * @param sweepInterval how often idle buckets are swept; zero disables the background sweep
+     */
+    public ExpiringBucketStore(Supplier<Bucket> bucketFactory, int maxKeys, Duration idleTtl, Duration sweepInterval) {
+        this(bucketFactory, maxKeys, idleTtl, sweepInterval, bucket -> true);
+    }
+
+    /**
+     * For buckets that may stay below full longer than idleTtl, e.g. because they can go into debt:
+     * an idle bucket is only swept once {@code refilled} holds for it.
+     */
+    public ExpiringBucketStore(Supplier<Bucket> bucketFactory, int maxKeys, Duration idleTtl, Duration sweepInterval,
+                               Predicate<Bucket> refilled) {
+        this.bucketFactory = bucketFactory;
+        this.maxKeys = maxKeys;
+        this.idleNanos = idleTtl.toNanos();
+        this.refilled = refilled;
+        if (sweepInterval.isZero()) {
+            this.sweeper = null;
+            this.sweep = Disposables.disposed();
+        } else {
+            this.sweeper = Schedulers.newSingle("bucket-sweeper", true);
+            this.sweep = sweeper.schedulePeriodically(this::evictIdle,
+                    sweepInterval.toMillis(), sweepInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public Bucket get(String key) {
+        long now = System.nanoTime();
+        Entry e = entries.get(key);
+        if (e == null) {
+            e = entries.computeIfAbsent(key, k -> new Entry(bucketFactory.get()));
+            // every thread that adds a key makes room for it afterwards, so the cap holds once inserts settle
+            while (entries.size() > maxKeys) {
+                if (!evictOne(key)) {
+                    break;
+                }
+            }
+        }
+        e.lastAccess = now;
+        return e.bucket;
+    }
+
+    /**
+     * Remove every bucket that has been idle for at least idleTtl and is full again. Returns the number removed.
+     */
+    public int evictIdle() {
+        long now = System.nanoTime();
+        int before = entries.size();
+        entries.values().removeIf(e -> now - e.lastAccess >= idleNanos && refilled.test(e.bucket));
+        return before - entries.size();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Evict one entry other than {@code keep}; false if there was nothing else to evict.
+     */
+    private boolean evictOne(String keep) {
+        // sampled LRU: cheap and good enough, since anything idle is swept anyway.
+        // Full buckets go first; only a sample of nothing but partly used ones gives one of those up
+        synchronized (evictionLock) {
+            String oldestKey = null;
+            long oldestAccess = 0;
+            boolean oldestRefilled = false;
+            boolean wrapped = false;
+            for (int i = 0; i < EVICTION_SAMPLE; i++) {
+                if (cursor == null || !cursor.hasNext()) {
+                    // the CHM iterator is weakly consistent, so it can be kept across calls; start over at the end
+                    if (wrapped) {
+                        break;
+                    }
+                    cursor = entries.entrySet().iterator();
+                    wrapped = true;
+                    if (!cursor.hasNext()) {
+                        break;
+                    }
+                }
+                Map.Entry<String, Entry> candidate = cursor.next();
+                Bucket bucket = candidate.getValue().bucket;
+                if (candidate.getKey().equals(keep) || bucket.getAvailableTokens() < 0) {
+                    continue;
+                }
+                long access = candidate.getValue().lastAccess;
+                boolean full = refilled.test(bucket);
+                if (oldestKey == null || (full && !oldestRefilled)
+                        || (full == oldestRefilled && access - oldestAccess < 0)) {
+                    oldestKey = candidate.getKey();
+                    oldestAccess = access;
+                    oldestRefilled = full;
+                }
+            }
+            return oldestKey != null && entries.remove(oldestKey) != null;
+        }
+    }
+
+    @Override
+    public void close() {
+        sweep.dispose();
+        if (sweeper != null) {
+            sweeper.dispose();
+        }
+    }
+
+    private static final class Entry {
+        final Bucket bucket;
+        volatile long lastAccess;
+
+        Entry(Bucket bucket) {
+            this.bucket = bucket;
+            this.lastAccess = System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.seya.ai.assistant.gatewayservice.infra;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Operators;
+import reactor.util.context.Context;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One upstream stream shared by any number of subscribers, each starting at a token offset of its choice.
+ * Unlike {@code replay().autoConnect()}, which asks upstream for everything at once, upstream is asked for no more
+ * than the subscriber furthest ahead has requested: while nobody reads, nothing is requested and upstream's own
+ * flow control holds the producer. Subscribers behind the furthest one get what they have not read yet from the
+ * buffer. Every item is kept for later subscribers until {@link #close()} says none will come; from then on only
+ * what a current subscriber has not read yet is kept.
+ * Upstream is subscribed, with the given context, when the first subscriber arrives.
+ */
+public final class SharedReplay<T> {
+
+    private final Publisher<T> source;
+    private final Context context;
+
+    // guarded by this
+    private final ArrayList<T> items = new ArrayList<>();
+    private long dropped;
+    private final List<Inner> inners = new ArrayList<>(2);
+    private boolean connected;
+    private boolean closed;
+    private boolean done;
+    private Throwable error;
+    private boolean cancelled;
+    private Subscription upstream;
+    private long requested;
+
+    public SharedReplay(Publisher<T> source, Context context) {
+        this.source = source;
+        this.context = context;
+    }
+
+    /**
+     * The stream from the given offset on. Items before the offset are skipped, and so are items no longer kept.
+     */
+    public Flux<T> from(long offset) {
+        return Flux.from((Publisher<T>) subscriber -> {
+            Inner inner = new Inner(subscriber, offset);
+            subscriber.onSubscribe(inner);
+            add(inner);
+        });
+    }
+
+    /**
+     * No new subscriber will come: stop keeping items every current subscriber has already read.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            dropRead();
+        }
+    }
+
+    /**
+     * Cancel upstream. Subscribers still attached complete once they have read what was already received.
+     */
+    public void cancel() {
+        Subscription subscription;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            done = true;
+            subscription = upstream;
+        }
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        drainAll();
+    }
+
+    private void add(Inner inner) {
+        boolean connect;
+        synchronized (this) {
+            // it may have requested already, so what it skips moves what it wants along
+            long gone = Math.max(0, dropped - inner.index);
+            inner.index += gone;
+            inner.wanted = Operators.addCap(inner.wanted, gone);
+            inners.add(inner);
+            connect = !connected;
+            connected = true;
+        }
+        if (connect) {
+            source.subscribe(new Upstream());
+        } else {
+            requestMore();
+        }
+        inner.drain();
+    }
+
+    private void remove(Inner inner) {
+        synchronized (this) {
+            inners.remove(inner);
+            dropRead();
+        }
+    }
+
+    /**
+     * Raise upstream demand to what the subscriber furthest ahead wants.
+     */
+    private void requestMore() {
+        Subscription subscription;
+        long n;
+        synchronized (this) {
+            if (upstream == null || done) {
+                return;
+            }
+            long wanted = 0;
+            for (Inner inner : inners) {
+                wanted = Math.max(wanted, inner.wanted);
+            }
+            if (wanted <= requested) {
+                return;
+            }
+            n = wanted - requested;
+            requested = wanted;
+            subscription = upstream;
+        }
+        subscription.request(n);
+    }
+
+    // guarded by this
+    private void dropRead() {
+        if (!closed) {
+            return;
+        }
+        long read = dropped + items.size();
+        for (Inner inner : inners) {
+            read = Math.min(read, inner.index);
+        }
+        int count = (int) (read - dropped);
+        // drop in chunks, so the copy behind it stays amortized
+        if (count > 0 && count * 2 >= items.size()) {
+            items.subList(0, count).clear();
+            dropped = read;
+        }
+    }
+
+    private void drainAll() {
+        List<Inner> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(inners);
+        }
+        for (Inner inner : snapshot) {
+            inner.drain();
+        }
+    }
+
+    private final class Upstream implements CoreSubscriber<T> {
+
+        @Override
+        public Context currentContext() {
+            return context;
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            boolean cancelNow;
+            synchronized (SharedReplay.this) {
+                upstream = s;
+                cancelNow = cancelled;
+            }
+            if (cancelNow) {
+                s.cancel();
+                return;
+            }
+            requestMore();
+        }
+
+        @Override
+        public void onNext(T item) {
+            synchronized (SharedReplay.this) {
+                if (done) {
+                    return;
+                }
+                items.add(item);
+            }
+            drainAll();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            synchronized (SharedReplay.this) {
+                if (done) {
+                    return;
+                }
+                error = t;
+                done = true;
+            }
+            drainAll();
+        }
+
+        @Override
+        public void onComplete() {
+            synchronized (SharedReplay.this) {
+                done = true;
+            }
+            drainAll();
+        }
+    }
+
+    private final class Inner implements Subscription {
+
+        private final Subscriber<? super T> actual;
+        private final AtomicLong requestedHere = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+
+        // guarded by the replay
+        private long index;
+        private long wanted;
+
+        Inner(Subscriber<? super T> actual, long offset) {
+            this.actual = actual;
+            this.index = offset;
+            this.wanted = offset;
+        }
+
+        @Override
+        public void request(long n) {
+            if (!Operators.validate(n)) {
+                return;
+            }
+            requestedHere.getAndUpdate(r -> Operators.addCap(r, n));
+            synchronized (SharedReplay.this) {
+                // index plus outstanding requests: how far into the stream this subscriber is ready to go
+                wanted = Operators.addCap(wanted, n);
+            }
+            requestMore();
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                remove(this);
+            }
+        }
+
+        void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                long r = requestedHere.get();
+                long emitted = 0;
+                while (!cancelled) {
+                    T item = null;
+                    boolean finished;
+                    Throwable failure;
+                    synchronized (SharedReplay.this) {
+                        long received = dropped + items.size();
+                        if (emitted != r && index < received) {
+                            item = items.get((int) (index - dropped));
+                            index++;
+                        }
+                        finished = item == null && done && index >= received;
+                        failure = error;
+                    }
+                    if (item != null) {
+                        emitted++;
+                        actual.onNext(item);
+                    } else {
+                        if (finished) {
+                            cancelled = true;
+                            remove(this);
+                            if (failure != null) {
+                                actual.onError(failure);
+                            } else {
+                                actual.onComplete();
+                            }
+                        }
+                        break;
+                    }
+                }
+                if (emitted != 0 && r != Long.MAX_VALUE) {
+                    requestedHere.addAndGet(-emitted);
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
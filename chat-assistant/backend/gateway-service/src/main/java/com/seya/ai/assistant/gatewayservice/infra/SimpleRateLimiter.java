@@ -4,26 +4,45 @@ package com.seya.ai.assistant.gatewayservice.infra;
 import io.github.bucket4j.Bandwidth;
 import io.github.bucket4j.Bucket;
 import io.github.bucket4j.Refill;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.time.Duration;
-import java.util.concurrent.ConcurrentHashMap;
 
 @Component
 public class SimpleRateLimiter {
 
-    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    // example: 10 tokens per 10 seconds
+    private static final int CAPACITY = 10;
+    private static final Duration REFILL_PERIOD = Duration.ofSeconds(10);
+
+    private final ExpiringBucketStore buckets;
+
+    public SimpleRateLimiter(
+            @Value("${gateway.rate-limit.max-keys:200000}") int maxKeys,
+            @Value("${gateway.rate-limit.sweep-interval-seconds:30}") long sweepIntervalSeconds) {
+        // an untouched bucket is full again after one refill period, so it can be dropped after that
+        this.buckets = new ExpiringBucketStore(SimpleRateLimiter::newBucket, maxKeys,
+                REFILL_PERIOD, Duration.ofSeconds(sweepIntervalSeconds));
+    }
 
     public boolean tryConsume(String key) {
-        Bucket b = buckets.computeIfAbsent(key, k -> newBucket());
-        return b.tryConsume(1);
+        return buckets.get(key).tryConsume(1);
+    }
+
+    public int trackedKeys() {
+        return buckets.size();
     }
 
-    private Bucket newBucket() {
-        // example: 10 tokens per 10 seconds
-        Refill refill = Refill.greedy(10, Duration.ofSeconds(10));
-        Bandwidth limit = Bandwidth.classic(10, refill);
+    private static Bucket newBucket() {
+        Refill refill = Refill.greedy(CAPACITY, REFILL_PERIOD);
+        Bandwidth limit = Bandwidth.classic(CAPACITY, refill);
         return Bucket.builder().addLimit(limit).build();
     }
-}
 
+    @PreDestroy
+    public void shutdown() {
+        buckets.close();
+    }
+}
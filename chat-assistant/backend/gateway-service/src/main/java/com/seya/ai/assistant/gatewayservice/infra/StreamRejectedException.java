@@ -0,0 +1,17 @@
+package com.seya.ai.assistant.gatewayservice.infra;
+
+/**
+ * Raised when the gateway refuses to open an upstream stream (overload, open circuit, ...).
+ * The message is the error code sent to the client in the {"type":"error"} frame.
+ */
+public class StreamRejectedException extends RuntimeException {
+
+    public StreamRejectedException(String code) {
+        // no stack trace: these are expected under load and must be cheap to create
+        super(code, null, false, false);
+    }
+
+    public String code() {
+        return getMessage();
+    }
+}
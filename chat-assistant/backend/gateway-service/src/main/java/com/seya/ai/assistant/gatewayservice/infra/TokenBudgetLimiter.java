@@ -0,0 +1,79 @@
+package com.seya.ai.assistant.gatewayservice.infra;
+
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.Refill;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Second rate-limit dimension next to {@link SimpleRateLimiter}: charges users for the LLM tokens their
+ * streams actually generate. Tokens are charged after the fact, so a long answer may take the balance below
+ * zero; new requests are refused until it has refilled above zero.
+ */
+@Component
+public class TokenBudgetLimiter {
+
+    private final boolean enabled;
+    private final long capacity;
+    private final Duration window;
+    private final ExpiringBucketStore buckets;
+
+    private final LongAdder rejected = new LongAdder();
+
+    public TokenBudgetLimiter(
+            @Value("${gateway.token-budget.enabled:true}") boolean enabled,
+            @Value("${gateway.token-budget.tokens-per-window:20000}") long capacity,
+            @Value("${gateway.token-budget.window-minutes:60}") long windowMinutes,
+            @Value("${gateway.token-budget.max-keys:200000}") int maxKeys,
+            @Value("${gateway.token-budget.sweep-interval-seconds:60}") long sweepIntervalSeconds) {
+        this.enabled = enabled;
+        this.capacity = capacity;
+        this.window = Duration.ofMinutes(windowMinutes);
+        // a bucket that went negative may need several windows to refill; it is only dropped once full again,
+        // otherwise the user would get a fresh bucket and the debt would be forgiven
+        this.buckets = new ExpiringBucketStore(this::newBucket, maxKeys, window,
+                Duration.ofSeconds(sweepIntervalSeconds), bucket -> bucket.getAvailableTokens() >= capacity);
+    }
+
+    /**
+     * Whether the user may start another generation.
+     */
+    public boolean hasBudget(String userId) {
+        if (!enabled || buckets.get(userId).getAvailableTokens() > 0) {
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * Charge generated tokens to the user, allowing the balance to go negative.
+     */
+    public void charge(String userId, long tokens) {
+        if (enabled && tokens > 0) {
+            buckets.get(userId).consumeIgnoringRateLimits(tokens);
+        }
+    }
+
+    /**
+     * Starts refused for lack of budget.
+     */
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    private Bucket newBucket() {
+        Bandwidth limit = Bandwidth.classic(capacity, Refill.greedy(capacity, window));
+        return Bucket.builder().addLimit(limit).build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        buckets.close();
+    }
+}
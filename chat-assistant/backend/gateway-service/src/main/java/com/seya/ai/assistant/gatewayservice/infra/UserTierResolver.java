@@ -0,0 +1,46 @@
+package com.seya.ai.assistant.gatewayservice.infra;
+
+import com.seya.ai.assistant.gatewayservice.config.TierProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+@Component
+public class UserTierResolver {
+
+    private static final String FALLBACK_TIER = "free";
+
+    private final String defaultTier;
+    private final Map<String, Integer> weights;
+    private final Map<String, String> users;
+    private final Map<String, Integer> maxTokens;
+
+    public UserTierResolver(TierProperties tiers) {
+        this.defaultTier = tiers.defaultTier() != null ? tiers.defaultTier() : FALLBACK_TIER;
+        this.weights = tiers.weights() != null ? Map.copyOf(tiers.weights()) : Map.of();
+        this.users = tiers.users() != null ? Map.copyOf(tiers.users()) : Map.of();
+        this.maxTokens = tiers.maxTokens() != null ? Map.copyOf(tiers.maxTokens()) : Map.of();
+    }
+
+    public String tierOf(String userId) {
+        return users.getOrDefault(userId, defaultTier);
+    }
+
+    /**
+     * Fair-queuing weight of the user's tier; unknown tiers weigh 1.
+     */
+    public int weightOf(String userId) {
+        return Math.max(1, weights.getOrDefault(tierOf(userId), 1));
+    }
+
+    /**
+     * Most tokens an answer for the user may have; tiers without a limit get the default tier's, 0 means none.
+     */
+    public int maxTokensOf(String userId) {
+        Integer limit = maxTokens.get(tierOf(userId));
+        if (limit == null) {
+            limit = maxTokens.getOrDefault(defaultTier, 0);
+        }
+        return Math.max(0, limit);
+    }
+}
@@ -0,0 +1,101 @@
+package com.seya.ai.assistant.gatewayservice.infra;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Weighted fair queue over flows (users). Each entry costs one unit; its virtual finish tag is
+ * {@code max(virtualTime, flow's last finish) + 1 / weight}, and entries are dequeued in finish-tag order.
+ * A flow with weight 4 therefore gets four slots for every one of a weight-1 flow while both are backlogged,
+ * and a flow that floods the queue only delays itself.
+ * Not thread-safe; callers synchronize.
+ */
+final class WeightedFairQueue<E> {
+
+    private final PriorityQueue<Entry<E>> queue = new PriorityQueue<>(
+            Comparator.<Entry<E>>comparingDouble(e -> e.finishTag).thenComparingLong(e -> e.seq));
+    private final Map<String, Flow> flows = new HashMap<>();
+    private final int maxPerFlow;
+
+    private double virtualTime;
+    private long seq;
+
+    WeightedFairQueue(int maxPerFlow) {
+        this.maxPerFlow = maxPerFlow;
+    }
+
+    /**
+     * Enqueue an item for a flow. Returns null if that flow already has max-per-flow entries waiting.
+     */
+    Entry<E> offer(String flowId, int weight, E item) {
+        Flow flow = flows.computeIfAbsent(flowId, k -> new Flow());
+        if (flow.queued >= maxPerFlow) {
+            return null;
+        }
+        double start = Math.max(virtualTime, flow.lastFinish);
+        Entry<E> entry = new Entry<>(item, flowId, start + 1.0 / weight, seq++, System.nanoTime());
+        flow.lastFinish = entry.finishTag;
+        flow.queued++;
+        queue.add(entry);
+        return entry;
+    }
+
+    Entry<E> poll() {
+        Entry<E> entry = queue.poll();
+        if (entry != null) {
+            virtualTime = entry.finishTag;
+            dequeued(entry);
+        }
+        return entry;
+    }
+
+    boolean remove(Entry<E> entry) {
+        if (!queue.remove(entry)) {
+            return false;
+        }
+        dequeued(entry);
+        return true;
+    }
+
+    int size() {
+        return queue.size();
+    }
+
+    boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    private void dequeued(Entry<E> entry) {
+        Flow flow = flows.get(entry.flowId);
+        flow.queued--;
+        // an idle flow whose tags are in the past carries no state worth keeping
+        if (flow.queued == 0 && flow.lastFinish <= virtualTime) {
+            flows.remove(entry.flowId);
+        } else if (flows.size() > 2 * queue.size() + 64) {
+            flows.values().removeIf(f -> f.queued == 0 && f.lastFinish <= virtualTime);
+        }
+    }
+
+    static final class Entry<E> {
+        final E item;
+        final String flowId;
+        final double finishTag;
+        final long seq;
+        final long enqueuedNanos;
+
+        Entry(E item, String flowId, double finishTag, long seq, long enqueuedNanos) {
+            this.item = item;
+            this.flowId = flowId;
+            this.finishTag = finishTag;
+            this.seq = seq;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    private static final class Flow {
+        int queued;
+        double lastFinish;
+    }
+}
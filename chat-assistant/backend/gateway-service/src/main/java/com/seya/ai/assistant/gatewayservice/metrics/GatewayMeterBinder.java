@@ -0,0 +1,178 @@
+package com.seya.ai.assistant.gatewayservice.metrics;
+
+import com.seya.ai.assistant.gatewayservice.grpc.GrpcClientService;
+import com.seya.ai.assistant.gatewayservice.grpc.LlmBackendPool;
+import com.seya.ai.assistant.gatewayservice.infra.AdaptiveConcurrencyLimiter;
+import com.seya.ai.assistant.gatewayservice.infra.CircuitBreaker;
+import com.seya.ai.assistant.gatewayservice.infra.SimpleRateLimiter;
+import com.seya.ai.assistant.gatewayservice.infra.TokenBudgetLimiter;
+import com.seya.ai.assistant.gatewayservice.service.ConversationContextCache;
+import com.seya.ai.assistant.gatewayservice.service.ResponseCache;
+import com.seya.ai.assistant.gatewayservice.service.SingleFlight;
+import com.seya.ai.assistant.gatewayservice.transcript.TranscriptWriter;
+import com.seya.ai.assistant.gatewayservice.ws.ResumeRegistry;
+import com.seya.ai.assistant.gatewayservice.ws.TokenCoalescer;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports the counters the gateway components already keep (limiter, breaker, cache, backends, coalescing,
+ * resumable streams, transcripts, conversation history) as gauges and function counters, so they are read only when scraped.
+ */
+@Component
+public class GatewayMeterBinder implements MeterBinder {
+
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final CircuitBreaker circuitBreaker;
+    private final ResponseCache cache;
+    private final SingleFlight singleFlight;
+    private final LlmBackendPool backends;
+    private final GrpcClientService grpcClient;
+    private final TokenCoalescer coalescer;
+    private final SimpleRateLimiter rateLimiter;
+    private final TokenBudgetLimiter tokenBudget;
+    private final ResumeRegistry resumes;
+    private final TranscriptWriter transcripts;
+    private final ConversationContextCache contexts;
+
+    public GatewayMeterBinder(AdaptiveConcurrencyLimiter concurrencyLimiter, CircuitBreaker circuitBreaker,
+                              ResponseCache cache, SingleFlight singleFlight, LlmBackendPool backends,
+                              GrpcClientService grpcClient, TokenCoalescer coalescer, SimpleRateLimiter rateLimiter,
+                              TokenBudgetLimiter tokenBudget, ResumeRegistry resumes, TranscriptWriter transcripts,
+                              ConversationContextCache contexts) {
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.circuitBreaker = circuitBreaker;
+        this.cache = cache;
+        this.singleFlight = singleFlight;
+        this.backends = backends;
+        this.grpcClient = grpcClient;
+        this.coalescer = coalescer;
+        this.rateLimiter = rateLimiter;
+        this.tokenBudget = tokenBudget;
+        this.resumes = resumes;
+        this.transcripts = transcripts;
+        this.contexts = contexts;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("gateway.concurrency.limit", concurrencyLimiter, AdaptiveConcurrencyLimiter::currentLimit)
+                .description("current adaptive limit on LLM streams")
+                .register(registry);
+        Gauge.builder("gateway.concurrency.in.flight", concurrencyLimiter, AdaptiveConcurrencyLimiter::inFlight)
+                .register(registry);
+        Gauge.builder("gateway.concurrency.queued", concurrencyLimiter, AdaptiveConcurrencyLimiter::queued)
+                .register(registry);
+        FunctionCounter.builder("gateway.concurrency.shed", concurrencyLimiter, AdaptiveConcurrencyLimiter::shed)
+                .description("starts rejected as overloaded")
+                .register(registry);
+        // count and total wait of requests admitted from the fair queue; rate() of sum over count is the mean wait
+        FunctionTimer.builder("gateway.concurrency.queue.wait", concurrencyLimiter,
+                        AdaptiveConcurrencyLimiter::admittedFromQueue, AdaptiveConcurrencyLimiter::queueWaitNanos,
+                        TimeUnit.NANOSECONDS)
+                .description("time starts waited in the fair queue for an LLM stream slot")
+                .register(registry);
+
+        // one series per state, 1 for the current one
+        for (CircuitBreaker.State state : CircuitBreaker.State.values()) {
+            Gauge.builder("gateway.llm.breaker.state", circuitBreaker, b -> b.state() == state ? 1 : 0)
+                    .tag("state", state.name().toLowerCase(Locale.ROOT))
+                    .register(registry);
+        }
+        FunctionCounter.builder("gateway.llm.breaker.rejected", circuitBreaker, CircuitBreaker::rejected)
+                .register(registry);
+
+        // hit ratio over any window is rate(hit) / rate(hit + miss)
+        FunctionCounter.builder("gateway.cache.lookups", cache, ResponseCache::hits)
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("gateway.cache.lookups", cache, ResponseCache::misses)
+                .tag("result", "miss")
+                .register(registry);
+        Gauge.builder("gateway.cache.size", cache, ResponseCache::sizeBytes).baseUnit("bytes").register(registry);
+        FunctionCounter.builder("gateway.cache.evictions", cache, ResponseCache::evictions).register(registry);
+        FunctionCounter.builder("gateway.single.flight.joined", singleFlight, SingleFlight::joined)
+                .description("requests served by an identical stream already in flight")
+                .register(registry);
+
+        // backends come and go when DNS is re-resolved, and their gauges with them
+        backends.addListener(new LlmBackendPool.Listener() {
+            @Override
+            public void added(LlmBackendPool.Backend backend) {
+                Gauge.builder("gateway.llm.backend.in.flight", backend, LlmBackendPool.Backend::inFlight)
+                        .tag("backend", backend.target())
+                        .register(registry);
+            }
+
+            @Override
+            public void removed(LlmBackendPool.Backend backend) {
+                registry.find("gateway.llm.backend.in.flight").tag("backend", backend.target()).gauges()
+                        .forEach(registry::remove);
+            }
+        });
+        FunctionCounter.builder("gateway.llm.hedges", grpcClient, GrpcClientService::hedgesSent)
+                .tag("result", "sent")
+                .register(registry);
+        FunctionCounter.builder("gateway.llm.hedges", grpcClient, GrpcClientService::hedgesDenied)
+                .tag("result", "denied")
+                .register(registry);
+        FunctionCounter.builder("gateway.llm.truncated", grpcClient, GrpcClientService::truncated)
+                .description("streams cut off for generating past their max tokens")
+                .register(registry);
+
+        FunctionCounter.builder("gateway.ws.coalesce.tokens", coalescer, TokenCoalescer::tokensIn).register(registry);
+        FunctionCounter.builder("gateway.ws.coalesce.frames", coalescer, TokenCoalescer::framesOut).register(registry);
+        Gauge.builder("gateway.ws.resumable.streams", resumes, ResumeRegistry::size)
+                .description("answers held in replay buffers for reconnecting clients")
+                .register(registry);
+        FunctionCounter.builder("gateway.ws.resumes", resumes, ResumeRegistry::resumed).register(registry);
+        FunctionCounter.builder("gateway.ws.resume.expired", resumes, ResumeRegistry::expired)
+                .description("answers cancelled because no client resumed them within the grace period")
+                .register(registry);
+        Gauge.builder("gateway.ws.resumable.bytes", resumes, ResumeRegistry::sizeBytes)
+                .description("estimated heap held by replay buffers")
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("gateway.ws.resume.evicted", resumes, ResumeRegistry::evicted)
+                .description("answers dropped to keep replay buffers within max-bytes")
+                .register(registry);
+
+        Gauge.builder("gateway.rate.limit.keys", rateLimiter, SimpleRateLimiter::trackedKeys).register(registry);
+        FunctionCounter.builder("gateway.token.budget.rejected", tokenBudget, TokenBudgetLimiter::rejected)
+                .description("starts refused because the user's generated-token budget was used up")
+                .register(registry);
+
+        Gauge.builder("gateway.transcripts.queued", transcripts, TranscriptWriter::queued)
+                .description("chat turns waiting to be saved")
+                .register(registry);
+        FunctionCounter.builder("gateway.transcripts.written", transcripts, TranscriptWriter::written).register(registry);
+        FunctionCounter.builder("gateway.transcripts.batches", transcripts, TranscriptWriter::batches).register(registry);
+        FunctionCounter.builder("gateway.transcripts.dropped", transcripts, TranscriptWriter::dropped)
+                .description("chat turns dropped because the write queue was full")
+                .register(registry);
+        FunctionCounter.builder("gateway.transcripts.failed", transcripts, TranscriptWriter::failed)
+                .description("chat turns dropped because they could not be saved, even one at a time")
+                .register(registry);
+
+        FunctionCounter.builder("gateway.conversation.lookups", contexts, ConversationContextCache::hits)
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("gateway.conversation.lookups", contexts, ConversationContextCache::misses)
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("gateway.conversation.load.failures", contexts, ConversationContextCache::loadFailures)
+                .register(registry);
+        Gauge.builder("gateway.conversation.size", contexts, ConversationContextCache::sizeBytes)
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("gateway.conversation.evictions", contexts, ConversationContextCache::evictions)
+                .register(registry);
+    }
+}
@@ -0,0 +1,101 @@
+package com.seya.ai.assistant.gatewayservice.service;
+
+import com.example.gateway.grpc.Turn;
+import com.seya.ai.assistant.gatewayservice.grpc.GenerationParams;
+import com.seya.ai.assistant.gatewayservice.grpc.GrpcClientService;
+import com.seya.ai.assistant.gatewayservice.infra.AdaptiveConcurrencyLimiter;
+import com.seya.ai.assistant.gatewayservice.infra.CircuitBreaker;
+import com.seya.ai.assistant.gatewayservice.infra.TokenBudgetLimiter;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Entry point for answer streams used by the WebSocket handler.
+ * Serves repeated questions from the response cache and only goes to the LLM tier on a miss;
+ * identical questions that miss at the same time share a single upstream stream.
+ * Questions within a conversation are sent with the conversation's recent turns; their answers depend on that
+ * history, so they bypass the cache and are never shared. Answers generated with different parameters (model,
+ * max tokens, temperature, stop sequences) are cached and shared separately.
+ * Upstream streams pass the circuit breaker and are opened under the adaptive concurrency limit, and
+ * tokens that come from the LLM tier are charged to the user's token budget as they flow out: counted per
+ * stream and charged a batch at a time, with the remainder charged when the stream ends or is cancelled.
+ */
+@Service
+public class ChatStreamService {
+
+    // tokens charged to the budget at once; a user's other requests see the debt at most this far behind
+    private static final int CHARGE_BATCH = 64;
+
+    private final GrpcClientService grpcClient;
+    private final ResponseCache cache;
+    private final SingleFlight singleFlight;
+    private final TokenBudgetLimiter tokenBudget;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final CircuitBreaker circuitBreaker;
+    private final ConversationContextCache contexts;
+
+    public ChatStreamService(GrpcClientService grpcClient, ResponseCache cache, SingleFlight singleFlight,
+                             TokenBudgetLimiter tokenBudget, AdaptiveConcurrencyLimiter concurrencyLimiter,
+                             CircuitBreaker circuitBreaker, ConversationContextCache contexts) {
+        this.grpcClient = grpcClient;
+        this.cache = cache;
+        this.singleFlight = singleFlight;
+        this.tokenBudget = tokenBudget;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.circuitBreaker = circuitBreaker;
+        this.contexts = contexts;
+    }
+
+    /**
+     * Stream the answer to a query as tokens. Cancelling the Flux cancels any upstream call.
+     * {@code conversationId} may be null for a question outside any conversation.
+     * Fails with StreamRejectedException when the gateway sheds the request.
+     */
+    public Flux<String> stream(String correlationId, String conversationId, String userId, String query,
+                               GenerationParams params) {
+        return contexts.history(userId, conversationId)
+                .flatMapMany(history -> contexts.record(userId, conversationId, query,
+                        answer(correlationId, userId, query, history, params)));
+    }
+
+    private Flux<String> answer(String correlationId, String userId, String query, List<Turn> history,
+                                GenerationParams params) {
+        if (!history.isEmpty()) {
+            return charged(userId, upstream(correlationId, userId, query, history, params));
+        }
+        String normalized = ResponseCache.normalize(query);
+        String key = normalized == null ? null : normalized + params.key();
+        List<String> cached = cache.get(key);
+        if (cached != null) {
+            return cache.replay(cached);
+        }
+        // each subscriber pays for the tokens it receives, including from a shared flight
+        return charged(userId, singleFlight.join(key, () -> cache.populate(key,
+                upstream(correlationId, userId, query, history, params))));
+    }
+
+    private Flux<String> charged(String userId, Flux<String> tokens) {
+        return Flux.defer(() -> {
+            AtomicLong uncharged = new AtomicLong();
+            return tokens
+                    .doOnNext(token -> {
+                        if (uncharged.incrementAndGet() >= CHARGE_BATCH) {
+                            tokenBudget.charge(userId, uncharged.getAndSet(0));
+                        }
+                    })
+                    // a cancel may race the last token, so whatever is left is taken atomically
+                    .doFinally(signal -> tokenBudget.charge(userId, uncharged.getAndSet(0)));
+        });
+    }
+
+    private Flux<String> upstream(String correlationId, String userId, String query, List<Turn> history,
+                                  GenerationParams params) {
+        // while the breaker is open we fail fast, before taking a concurrency slot; slow calls are timed from
+        // when the slot is granted
+        return circuitBreaker.protect(grpcClient.streamResponse(correlationId, userId, query, history, params),
+                calls -> concurrencyLimiter.limit(userId, calls));
+    }
+}
@@ -0,0 +1,269 @@
+package com.seya.ai.assistant.gatewayservice.service;
+
+import com.example.gateway.grpc.Turn;
+import com.seya.ai.assistant.gatewayservice.transcript.ChatTurn;
+import com.seya.ai.assistant.gatewayservice.transcript.ChatTurnRepository;
+import com.seya.ai.assistant.gatewayservice.transcript.TranscriptWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Recent turns of each conversation, so a follow-up question can be sent to the LLM with its history.
+ * Conversation ids come from the client, so conversations are keyed by user and conversation id: a user who
+ * sends someone else's conversation id starts a conversation of their own rather than seeing theirs.
+ * Conversations are kept in LRU order with at most max-turns turns each, and evicted once the total estimated
+ * size exceeds max-bytes. A conversation that is not cached is loaded from the transcript store on a worker
+ * thread (never on the event loop), together with its turns the transcript writer has not saved yet, so a turn
+ * that just ended is not lost to a reload; without a datasource, history only lives here.
+ * The history sent with a request is the most recent turns that fit in history-tokens, counting a turn as its
+ * answer's token count plus its query's length in chars-per-token.
+ */
+@Component
+public class ConversationContextCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversationContextCache.class);
+
+    // rough heap cost of a cached turn beyond its text: the record, two Strings and the deque slot
+    private static final int TURN_OVERHEAD_BYTES = 112;
+
+    private final boolean enabled;
+    private final long maxBytes;
+    private final int maxTurns;
+    private final int historyTokens;
+    private final int charsPerToken;
+    private final ChatTurnRepository repository;
+    private final TranscriptWriter transcripts;
+
+    // access-ordered, so iteration starts at the least recently used conversation; guarded by this
+    private final LinkedHashMap<String, Conversation> conversations = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ConversationContextCache(
+            ObjectProvider<ChatTurnRepository> repository,
+            TranscriptWriter transcripts,
+            @Value("${gateway.conversation.enabled:true}") boolean enabled,
+            @Value("${gateway.conversation.max-bytes:33554432}") long maxBytes,
+            @Value("${gateway.conversation.max-turns:20}") int maxTurns,
+            @Value("${gateway.conversation.history-tokens:2000}") int historyTokens,
+            @Value("${gateway.conversation.chars-per-token:4}") int charsPerToken) {
+        this.enabled = enabled;
+        this.maxBytes = maxBytes;
+        this.maxTurns = maxTurns;
+        this.historyTokens = historyTokens;
+        this.charsPerToken = charsPerToken;
+        this.repository = enabled ? repository.getIfAvailable() : null;
+        this.transcripts = transcripts;
+    }
+
+    /**
+     * History to send with the next question of a conversation, oldest turn first. Empty without a conversation.
+     */
+    public Mono<List<Turn>> history(String userId, String conversationId) {
+        if (!enabled || conversationId == null) {
+            return Mono.just(List.of());
+        }
+        String key = key(userId, conversationId);
+        return Mono.defer(() -> {
+            List<Exchange> cached = snapshot(key);
+            if (cached != null) {
+                hits.increment();
+                return Mono.just(window(cached));
+            }
+            misses.increment();
+            if (repository == null) {
+                return Mono.just(window(cache(key, List.of())));
+            }
+            // JPA blocks, so the lookup runs on a worker thread
+            return Mono.fromCallable(() -> cache(key, load(userId, conversationId)))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .map(this::window)
+                    .onErrorResume(e -> {
+                        loadFailures.increment();
+                        log.warn("Could not load history of conversation {}: {}", conversationId, e.toString());
+                        return Mono.just(List.of());
+                    });
+        });
+    }
+
+    /**
+     * Add the answer to the conversation once {@code tokens} completes; failed or cancelled answers are not kept.
+     */
+    public Flux<String> record(String userId, String conversationId, String query, Flux<String> tokens) {
+        if (!enabled || conversationId == null) {
+            return tokens;
+        }
+        String key = key(userId, conversationId);
+        return Flux.defer(() -> {
+            StringBuilder answer = new StringBuilder();
+            int[] count = {0};
+            return tokens
+                    .doOnNext(token -> {
+                        answer.append(token);
+                        count[0]++;
+                    })
+                    .doOnComplete(() -> append(key, exchange(query, answer.toString(), count[0])));
+        });
+    }
+
+    private static String key(String userId, String conversationId) {
+        return userId + '\u0000' + conversationId;
+    }
+
+    private List<ChatTurn> load(String userId, String conversationId) {
+        // the writer first: a turn it saves while we query is then in one list or the other
+        List<ChatTurn> unsaved = transcripts.unsaved(userId, conversationId);
+        List<ChatTurn> newestFirst = repository.findByUserIdAndConversationIdAndOutcomeOrderByStartedAtDesc(
+                userId, conversationId, "complete", Limit.of(maxTurns));
+        List<ChatTurn> turns = new ArrayList<>(newestFirst);
+        Collections.reverse(turns);
+        if (unsaved.isEmpty()) {
+            return turns;
+        }
+        Set<UUID> stored = new HashSet<>();
+        turns.forEach(turn -> stored.add(turn.getId()));
+        for (ChatTurn turn : unsaved) {
+            if ("complete".equals(turn.getOutcome()) && !stored.contains(turn.getId())) {
+                turns.add(turn);
+            }
+        }
+        turns.sort(Comparator.comparing(ChatTurn::getStartedAt));
+        return turns.size() > maxTurns ? turns.subList(turns.size() - maxTurns, turns.size()) : turns;
+    }
+
+    private synchronized List<Exchange> snapshot(String key) {
+        Conversation conversation = conversations.get(key);
+        return conversation == null ? null : List.copyOf(conversation.turns);
+    }
+
+    private List<Exchange> cache(String key, List<ChatTurn> loaded) {
+        List<Exchange> exchanges = new ArrayList<>(loaded.size());
+        for (ChatTurn turn : loaded) {
+            exchanges.add(exchange(turn.getQuery(), turn.getAnswer(), turn.getTokens()));
+        }
+        synchronized (this) {
+            Conversation conversation = conversations.get(key);
+            if (conversation != null) {
+                // loaded concurrently by another request
+                return List.copyOf(conversation.turns);
+            }
+            conversation = new Conversation();
+            conversations.put(key, conversation);
+            for (Exchange exchange : exchanges) {
+                add(conversation, exchange);
+            }
+            evict();
+        }
+        return exchanges;
+    }
+
+    private synchronized void append(String key, Exchange exchange) {
+        // an evicted conversation is reloaded from the transcript store on its next question
+        Conversation conversation = conversations.get(key);
+        if (conversation != null) {
+            add(conversation, exchange);
+            evict();
+        }
+    }
+
+    private void add(Conversation conversation, Exchange exchange) {
+        conversation.turns.addLast(exchange);
+        conversation.bytes += exchange.bytes;
+        totalBytes += exchange.bytes;
+        while (conversation.turns.size() > maxTurns) {
+            Exchange dropped = conversation.turns.removeFirst();
+            conversation.bytes -= dropped.bytes;
+            totalBytes -= dropped.bytes;
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Conversation>> it = conversations.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Conversation> eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.getValue().bytes;
+            evictions.increment();
+        }
+    }
+
+    /**
+     * The most recent turns that fit in the token budget, oldest first.
+     */
+    private List<Turn> window(List<Exchange> turns) {
+        int budget = historyTokens;
+        int first = turns.size();
+        while (first > 0 && turns.get(first - 1).tokens <= budget) {
+            first--;
+            budget -= turns.get(first).tokens;
+        }
+        List<Turn> window = new ArrayList<>(turns.size() - first);
+        for (int i = first; i < turns.size(); i++) {
+            Exchange exchange = turns.get(i);
+            window.add(Turn.newBuilder().setQuery(exchange.query).setAnswer(exchange.answer).build());
+        }
+        return window;
+    }
+
+    private Exchange exchange(String query, String answer, int answerTokens) {
+        int tokens = answerTokens + (query.length() + charsPerToken - 1) / charsPerToken;
+        long bytes = TURN_OVERHEAD_BYTES + 2L * (query.length() + answer.length());
+        return new Exchange(query, answer, tokens, bytes);
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long loadFailures() {
+        return loadFailures.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public synchronized long sizeBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int size() {
+        return conversations.size();
+    }
+
+    private record Exchange(String query, String answer, int tokens, long bytes) {
+    }
+
+    private static final class Conversation {
+        final ArrayDeque<Exchange> turns = new ArrayDeque<>();
+        long bytes;
+    }
+}
@@ -0,0 +1,173 @@
+package com.seya.ai.assistant.gatewayservice.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Exact-match cache of finished LLM answers, keyed by normalized query text.
+ * Entries are kept in LRU order, expire after a TTL and are evicted once the total estimated size
+ * exceeds max-bytes. A hit is replayed as the stored token sequence, so clients see the same framing
+ * as for a live answer.
+ */
+@Component
+public class ResponseCache {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    // rough heap cost of a cached token: String + byte[] headers and the list slot
+    private static final int TOKEN_OVERHEAD_BYTES = 56;
+
+    private final boolean enabled;
+    private final long ttlNanos;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final Duration replayPacing;
+
+    // access-ordered, so iteration starts at the least recently used entry; guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ResponseCache(
+            @Value("${gateway.cache.enabled:true}") boolean enabled,
+            @Value("${gateway.cache.ttl-seconds:600}") long ttlSeconds,
+            @Value("${gateway.cache.max-bytes:67108864}") long maxBytes,
+            @Value("${gateway.cache.max-entry-bytes:262144}") long maxEntryBytes,
+            @Value("${gateway.cache.replay-pacing-ms:0}") long replayPacingMs) {
+        this.enabled = enabled;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        this.replayPacing = Duration.ofMillis(replayPacingMs);
+    }
+
+    /**
+     * Normalized form of a query: lower-cased, trimmed, with runs of whitespace collapsed. Null for a blank query.
+     */
+    public static String normalize(String query) {
+        if (query == null || query.isBlank()) {
+            return null;
+        }
+        return WHITESPACE.matcher(query.trim().toLowerCase(Locale.ROOT)).replaceAll(" ");
+    }
+
+    /**
+     * Stored tokens for a key, or null on a miss.
+     */
+    public List<String> get(String key) {
+        if (!enabled || key == null) {
+            return null;
+        }
+        List<String> tokens = null;
+        synchronized (this) {
+            Entry e = entries.get(key);
+            if (e != null) {
+                if (System.nanoTime() - e.expiresAt < 0) {
+                    tokens = e.tokens;
+                } else {
+                    remove(key);
+                }
+            }
+        }
+        (tokens != null ? hits : misses).increment();
+        return tokens;
+    }
+
+    /**
+     * Replay a stored answer, at full speed or at the configured pacing between tokens.
+     */
+    public Flux<String> replay(List<String> tokens) {
+        Flux<String> flux = Flux.fromIterable(tokens);
+        return replayPacing.isZero() ? flux : flux.delayElements(replayPacing);
+    }
+
+    /**
+     * Record the tokens of a live stream and store them once it completes successfully.
+     * Answers larger than max-entry-bytes are not stored.
+     */
+    public Flux<String> populate(String key, Flux<String> tokens) {
+        if (!enabled || key == null) {
+            return tokens;
+        }
+        return Flux.defer(() -> {
+            List<String> recorded = new ArrayList<>();
+            long[] bytes = {0};
+            return tokens
+                    .doOnNext(token -> {
+                        if (bytes[0] <= maxEntryBytes) {
+                            recorded.add(token);
+                            bytes[0] += sizeOf(token);
+                        }
+                    })
+                    .doOnComplete(() -> {
+                        if (bytes[0] <= maxEntryBytes && !recorded.isEmpty()) {
+                            put(key, List.copyOf(recorded), bytes[0]);
+                        }
+                    });
+        });
+    }
+
+    private synchronized void put(String key, List<String> tokens, long bytes) {
+        remove(key);
+        entries.put(key, new Entry(tokens, bytes, System.nanoTime() + ttlNanos));
+        totalBytes += bytes;
+
+        // evict least recently used entries until we are back under the byte cap
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.getValue().bytes;
+            evictions.increment();
+        }
+    }
+
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            totalBytes -= removed.bytes;
+        }
+    }
+
+    private static long sizeOf(String token) {
+        return TOKEN_OVERHEAD_BYTES + 2L * token.length();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public synchronized long sizeBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private record Entry(List<String> tokens, long bytes, long expiresAt) {
+    }
+}
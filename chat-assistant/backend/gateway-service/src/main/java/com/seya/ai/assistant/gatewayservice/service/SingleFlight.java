@@ -0,0 +1,154 @@
+package com.seya.ai.assistant.gatewayservice.service;
+
+import com.seya.ai.assistant.gatewayservice.infra.SharedReplay;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.util.context.Context;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Shares one upstream stream among all subscribers asking the same normalized query at the same time.
+ * Late joiners get the tokens emitted so far replayed before the live ones. The upstream call is cancelled
+ * only when the last subscriber leaves, and the flight is forgotten as soon as the upstream terminates.
+ * Upstream is read as fast as the quickest subscriber reads, never faster; slower subscribers get what they have
+ * not read yet from the flight's buffer. So that a joiner always finds the whole answer there, a flight only takes
+ * joiners during its first max-replay-tokens / 2 tokens; later callers start a flight of their own, and the flight
+ * stops keeping tokens every subscriber has read.
+ * The upstream call is made with the first caller's request, so the concurrency limiter and its fair queue count
+ * it against that caller, and the call's logs carry that caller's correlation id; joiners take no slot of their
+ * own. Token budgets are charged per subscriber, outside the flight.
+ */
+@Component
+public class SingleFlight {
+
+    private final boolean enabled;
+    private final int maxReplayTokens;
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+    private final LongAdder started = new LongAdder();
+    private final LongAdder joined = new LongAdder();
+
+    public SingleFlight(@Value("${gateway.single-flight.enabled:true}") boolean enabled,
+                        @Value("${gateway.single-flight.max-replay-tokens:1024}") int maxReplayTokens) {
+        this.enabled = enabled;
+        this.maxReplayTokens = maxReplayTokens;
+    }
+
+    /**
+     * Subscribe to the in-flight stream for {@code key}, starting it with {@code upstream} if there is none.
+     * The upstream is created with the first caller's request; later callers with the same key share it.
+     */
+    public Flux<String> join(String key, Supplier<Flux<String>> upstream) {
+        if (!enabled || key == null) {
+            return upstream.get();
+        }
+        return Flux.defer(() -> {
+            boolean[] created = {false};
+            Flight flight = flights.compute(key, (k, current) -> {
+                if (current != null && current.enter()) {
+                    return current;
+                }
+                Flight f = new Flight(k, upstream.get());
+                f.enter();
+                created[0] = true;
+                return f;
+            });
+            (created[0] ? started : joined).increment();
+            return Flux.<String>from(subscriber -> {
+                flight.replay.from(0).subscribe(subscriber);
+                flight.attached();
+            }).doFinally(signal -> flight.leave());
+        });
+    }
+
+    public int inFlight() {
+        return flights.size();
+    }
+
+    public long started() {
+        return started.sum();
+    }
+
+    public long joined() {
+        return joined.sum();
+    }
+
+    private final class Flight {
+
+        private final String key;
+        private final SharedReplay<String> replay;
+
+        // guarded by this
+        private int subscribers;
+        private int attaching;
+        private boolean joinable = true;
+
+        private Flight(String key, Flux<String> upstream) {
+            this.key = key;
+            int joinableTokens = Math.max(1, maxReplayTokens / 2);
+            int[] produced = {0};
+            this.replay = new SharedReplay<>(upstream
+                    .doOnNext(token -> {
+                        // past this point the buffer may no longer hold the start of the answer
+                        if (++produced[0] == joinableTokens) {
+                            closeToJoiners();
+                        }
+                    })
+                    // complete, error or last subscriber gone: new callers must start a fresh flight
+                    .doFinally(signal -> closeToJoiners()),
+                    // the call belongs to no single subscriber, so none of their context (e.g. a slot to
+                    // pause while they are away) reaches it
+                    Context.empty());
+        }
+
+        /**
+         * Count in a new subscriber; false once the flight takes no more.
+         */
+        private synchronized boolean enter() {
+            if (!joinable) {
+                return false;
+            }
+            subscribers++;
+            attaching++;
+            return true;
+        }
+
+        private void attached() {
+            boolean close;
+            synchronized (this) {
+                close = --attaching == 0 && !joinable;
+            }
+            if (close) {
+                replay.close();
+            }
+        }
+
+        private void closeToJoiners() {
+            boolean close;
+            synchronized (this) {
+                joinable = false;
+                // a subscriber counted in but not yet subscribed still needs the whole buffer
+                close = attaching == 0;
+            }
+            flights.remove(key, this);
+            if (close) {
+                replay.close();
+            }
+        }
+
+        private void leave() {
+            synchronized (this) {
+                if (--subscribers > 0) {
+                    return;
+                }
+                joinable = false;
+            }
+            flights.remove(key, this);
+            replay.cancel();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.seya.ai.assistant.gatewayservice.transcript;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import org.springframework.data.domain.Persistable;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * One question and its answer as streamed to the client.
+ * The id is assigned here rather than by the database so Hibernate can batch the inserts, and turns are only
+ * ever inserted, so {@link #isNew()} is always true and saving never issues a SELECT first.
+ */
+@Entity
+@Table(name = "chat_turn",
+        indexes = @Index(name = "chat_turn_conversation_idx", columnList = "user_id, conversation_id, started_at"))
+public class ChatTurn implements Persistable<UUID> {
+
+    /**
+     * Longest conversation, request and user id stored; they come from clients, which are refused longer ones.
+     */
+    public static final int MAX_ID_LENGTH = 255;
+
+    // error messages longer than this (e.g. wrapping a provider's error body) are cut to fit the column
+    private static final int MAX_ERROR_LENGTH = 255;
+
+    @Id
+    private UUID id;
+
+    @Column(name = "correlation_id", nullable = false, length = 64)
+    private String correlationId;
+
+    // null for turns outside a conversation
+    @Column(name = "conversation_id", length = MAX_ID_LENGTH)
+    private String conversationId;
+
+    @Column(name = "request_id", nullable = false, length = MAX_ID_LENGTH)
+    private String requestId;
+
+    @Column(name = "user_id", nullable = false, length = MAX_ID_LENGTH)
+    private String userId;
+
+    @Column(columnDefinition = "text", nullable = false)
+    private String query;
+
+    @Column(columnDefinition = "text", nullable = false)
+    private String answer;
+
+    @Column(nullable = false)
+    private int tokens;
+
+    // complete, error or cancelled
+    @Column(nullable = false, length = 16)
+    private String outcome;
+
+    @Column(length = MAX_ERROR_LENGTH)
+    private String error;
+
+    @Column(name = "started_at", nullable = false)
+    private Instant startedAt;
+
+    // null when no token arrived
+    @Column(name = "ttft_ms")
+    private Long ttftMs;
+
+    @Column(name = "duration_ms", nullable = false)
+    private long durationMs;
+
+    protected ChatTurn() {
+    }
+
+    public ChatTurn(String correlationId, String conversationId, String requestId, String userId, String query,
+                    String answer, int tokens, String outcome, String error, Instant startedAt, Long ttftMs,
+                    long durationMs) {
+        this.id = UUID.randomUUID();
+        this.correlationId = correlationId;
+        this.conversationId = conversationId;
+        this.requestId = requestId;
+        this.userId = userId;
+        this.query = query;
+        this.answer = answer;
+        this.tokens = tokens;
+        this.outcome = outcome;
+        this.error = error == null || error.length() <= MAX_ERROR_LENGTH ? error : error.substring(0, MAX_ERROR_LENGTH);
+        this.startedAt = startedAt;
+        this.ttftMs = ttftMs;
+        this.durationMs = durationMs;
+    }
+
+    @Override
+    public UUID getId() {
+        return id;
+    }
+
+    @Override
+    public boolean isNew() {
+        return true;
+    }
+
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    public String getConversationId() {
+        return conversationId;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public String getAnswer() {
+        return answer;
+    }
+
+    public int getTokens() {
+        return tokens;
+    }
+
+    public String getOutcome() {
+        return outcome;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public Long getTtftMs() {
+        return ttftMs;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+}
@@ -0,0 +1,16 @@
+package com.seya.ai.assistant.gatewayservice.transcript;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+import java.util.UUID;
+
+public interface ChatTurnRepository extends JpaRepository<ChatTurn, UUID> {
+
+    /**
+     * Most recent turns of a user's conversation with the given outcome, newest first.
+     */
+    List<ChatTurn> findByUserIdAndConversationIdAndOutcomeOrderByStartedAtDesc(String userId, String conversationId,
+                                                                              String outcome, Limit limit);
+}
@@ -0,0 +1,269 @@
+package com.seya.ai.assistant.gatewayservice.transcript;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Write-behind persistence of chat turns.
+ * The answer stream is only observed (tokens appended to a buffer); when it ends the turn is offered to a bounded
+ * queue and the stream moves on, so saving never adds latency to the WebSocket or blocks the event loop.
+ * A single writer thread drains the queue and saves batches of up to batch-size turns, flushing a partial batch
+ * once its oldest turn waited max-delay-ms. With Hibernate JDBC batching and the driver's batched-insert rewrite
+ * a batch is one multi-row INSERT, so throughput grows with the batch size rather than with connections.
+ * When the queue is full turns are dropped and counted: transcripts are never worth stalling answers for.
+ * A batch that fails to save is retried one turn at a time, so only the turns that cannot be saved are lost. Disabled when gateway.transcripts.enabled is false or there is no datasource.
+ */
+@Component
+public class TranscriptWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(TranscriptWriter.class);
+
+    // longest the writer waits on an empty queue before looking at the shutdown flag again
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final ChatTurnRepository repository;
+    private final BlockingQueue<ChatTurn> queue;
+    // turns taken for saving and not saved (or given up on) yet: queued, or in the batch being written
+    private final Set<ChatTurn> unsaved = ConcurrentHashMap.newKeySet();
+    private final int batchSize;
+    private final long maxDelayNanos;
+    private final long shutdownTimeoutMs;
+    private final Thread writer;
+
+    private volatile boolean running = true;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    public TranscriptWriter(
+            ObjectProvider<ChatTurnRepository> repository,
+            @Value("${gateway.transcripts.enabled:true}") boolean enabled,
+            @Value("${gateway.transcripts.queue-capacity:10000}") int queueCapacity,
+            @Value("${gateway.transcripts.batch-size:100}") int batchSize,
+            @Value("${gateway.transcripts.max-delay-ms:500}") long maxDelayMs,
+            @Value("${gateway.transcripts.shutdown-timeout-ms:10000}") long shutdownTimeoutMs) {
+        this.repository = enabled ? repository.getIfAvailable() : null;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+        this.shutdownTimeoutMs = shutdownTimeoutMs;
+        if (this.repository == null) {
+            this.writer = null;
+            log.info("Chat transcripts are not persisted");
+        } else {
+            this.writer = new Thread(this::run, "transcript-writer");
+            this.writer.setDaemon(true);
+            this.writer.start();
+        }
+    }
+
+    /**
+     * Observe an answer stream and persist the turn once it ends (completed, failed or cancelled).
+     */
+    public Flux<String> record(String correlationId, String conversationId, String requestId, String userId,
+                               String query, Flux<String> tokens) {
+        if (writer == null) {
+            return tokens;
+        }
+        return Flux.defer(() -> {
+            Turn turn = new Turn(correlationId, conversationId, requestId, userId, query);
+            return tokens
+                    .doOnNext(turn::onToken)
+                    .doOnError(turn::onError)
+                    .doFinally(turn::end);
+        });
+    }
+
+    /**
+     * Queue a turn for saving; never blocks. Returns false if the turn was dropped.
+     */
+    public boolean submit(ChatTurn turn) {
+        if (writer == null || !running) {
+            return false;
+        }
+        // before offering, so the writer never saves a turn that is not in the set yet
+        unsaved.add(turn);
+        if (!queue.offer(turn)) {
+            unsaved.remove(turn);
+            dropped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Turns of a conversation that were taken for saving but are not in the store yet, oldest first. Read this
+     * before querying the store: a turn saved in between then shows up in one or the other, or in both.
+     */
+    public List<ChatTurn> unsaved(String userId, String conversationId) {
+        if (writer == null) {
+            return List.of();
+        }
+        return unsaved.stream()
+                .filter(turn -> userId.equals(turn.getUserId()) && conversationId.equals(turn.getConversationId()))
+                .sorted(Comparator.comparing(ChatTurn::getStartedAt))
+                .toList();
+    }
+
+    private void run() {
+        List<ChatTurn> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                ChatTurn first = queue.poll(POLL_NANOS, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    // on shutdown whatever is queued goes out right away
+                    if (batch.size() >= batchSize || remaining <= 0 || !running) {
+                        break;
+                    }
+                    ChatTurn next = queue.poll(Math.min(remaining, POLL_NANOS), TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                flush(batch);
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void flush(List<ChatTurn> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            repository.saveAll(batch);
+            written.add(batch.size());
+            batches.increment();
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                failed.increment();
+                log.warn("Dropped a chat turn that could not be saved: {}", e.toString());
+            } else {
+                saveEach(batch);
+            }
+        } finally {
+            batch.forEach(unsaved::remove);
+            batch.clear();
+        }
+    }
+
+    private void saveEach(List<ChatTurn> batch) {
+        for (ChatTurn turn : batch) {
+            try {
+                repository.save(turn);
+                written.increment();
+            } catch (RuntimeException e) {
+                failed.increment();
+                log.warn("Dropped chat turn {} that could not be saved: {}", turn.getRequestId(), e.toString());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        if (writer != null) {
+            writer.join(shutdownTimeoutMs);
+            if (!queue.isEmpty()) {
+                log.warn("{} chat turns were not saved before shutdown", queue.size());
+            }
+        }
+    }
+
+    public int queued() {
+        return queue.size();
+    }
+
+    public long written() {
+        return written.sum();
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    public long failed() {
+        return failed.sum();
+    }
+
+    public long batches() {
+        return batches.sum();
+    }
+
+    /**
+     * One answer being streamed; signals are serialized, so plain fields are fine.
+     */
+    private final class Turn {
+
+        private final String correlationId;
+        private final String conversationId;
+        private final String requestId;
+        private final String userId;
+        private final String query;
+        private final Instant startedAt = Instant.now();
+        private final long startNanos = System.nanoTime();
+        private final StringBuilder answer = new StringBuilder();
+        private int tokens;
+        private long ttftNanos = -1;
+        private String error;
+
+        private Turn(String correlationId, String conversationId, String requestId, String userId, String query) {
+            this.correlationId = correlationId;
+            this.conversationId = conversationId;
+            this.requestId = requestId;
+            this.userId = userId;
+            this.query = query;
+        }
+
+        void onToken(String token) {
+            if (tokens++ == 0) {
+                ttftNanos = System.nanoTime() - startNanos;
+            }
+            answer.append(token);
+        }
+
+        void onError(Throwable t) {
+            error = String.valueOf(t.getMessage());
+        }
+
+        void end(SignalType signal) {
+            String outcome = switch (signal) {
+                case ON_COMPLETE -> "complete";
+                case ON_ERROR -> "error";
+                default -> "cancelled";
+            };
+            submit(new ChatTurn(correlationId, conversationId, requestId, userId, query, answer.toString(), tokens,
+                    outcome, error, startedAt, ttftNanos < 0 ? null : TimeUnit.NANOSECONDS.toMillis(ttftNanos),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)));
+        }
+    }
+}
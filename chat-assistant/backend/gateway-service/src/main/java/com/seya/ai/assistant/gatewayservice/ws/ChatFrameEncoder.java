@@ -0,0 +1,30 @@
+package com.seya.ai.assistant.gatewayservice.ws;
+
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+
+import java.util.List;
+
+/**
+ * Encodes the frames of one request (accepted, tokens, complete, error) for the session's negotiated sub-protocol.
+ * Instances are per request and not thread-safe.
+ */
+interface ChatFrameEncoder {
+
+    WebSocketMessage accepted();
+
+    /**
+     * Tokens of the answer, {@code offset} being the number of tokens of the answer sent before them.
+     */
+    WebSocketMessage tokens(long offset, List<String> tokens);
+
+    WebSocketMessage error(String error);
+
+    WebSocketMessage complete();
+
+    static ChatFrameEncoder forRequest(boolean binary, DataBufferFactory bufferFactory, String requestId) {
+        return binary
+                ? new ProtobufFrameEncoder(bufferFactory, requestId)
+                : new JsonFrameEncoder(bufferFactory, requestId);
+    }
+}
@@ -0,0 +1,341 @@
+package com.seya.ai.assistant.gatewayservice.ws;
+
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.seya.ai.assistant.gatewayservice.grpc.GenerationParams;
+import com.seya.ai.assistant.gatewayservice.infra.SimpleRateLimiter;
+import com.seya.ai.assistant.gatewayservice.infra.StreamRejectedException;
+import com.seya.ai.assistant.gatewayservice.infra.TokenBudgetLimiter;
+import com.seya.ai.assistant.gatewayservice.infra.UserTierResolver;
+import com.seya.ai.assistant.gatewayservice.service.ChatStreamService;
+import com.seya.ai.assistant.gatewayservice.transcript.ChatTurn;
+import com.seya.ai.assistant.gatewayservice.transcript.TranscriptWriter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Component
+public class ChatWebSocketHandler implements WebSocketHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatWebSocketHandler.class);
+
+    static final String JSON_PROTOCOL = "chat.v1.json";
+    static final String PROTOBUF_PROTOCOL = "chat.v1.protobuf";
+    private static final List<String> SUB_PROTOCOLS = List.of(JSON_PROTOCOL, PROTOBUF_PROTOCOL);
+    // reasons GrpcClientService gives its TimeoutExceptions, passed on to the client as they are
+    private static final Set<String> TIMEOUT_CODES = Set.of("ttft_timeout", "idle_timeout", "deadline_exceeded");
+
+    private final ChatStreamService chatStreams;
+    private final SimpleRateLimiter rateLimiter;
+    private final TokenBudgetLimiter tokenBudget;
+    private final TokenCoalescer coalescer;
+    private final ResumeRegistry resumes;
+    private final TranscriptWriter transcripts;
+    private final UserTierResolver tiers;
+    private final int maxConcurrentPerSession;
+    private final int maxQueuedPerSession;
+    private final ObjectMapper om = new ObjectMapper();
+
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    // frames produced by all sessions that are still buffered in the merge, i.e. session.send has not requested
+    // them yet; frames Netty has taken but not yet flushed to the socket are not included
+    private final AtomicLong outboundMergeBuffered = new AtomicLong();
+
+    public ChatWebSocketHandler(ChatStreamService chatStreams, SimpleRateLimiter rateLimiter,
+                                TokenBudgetLimiter tokenBudget, TokenCoalescer coalescer, ResumeRegistry resumes,
+                                TranscriptWriter transcripts, UserTierResolver tiers, MeterRegistry registry,
+                                @Value("${gateway.ws.max-concurrent-per-session:4}") int maxConcurrentPerSession,
+                                @Value("${gateway.ws.max-queued-per-session:8}") int maxQueuedPerSession) {
+        this.chatStreams = chatStreams;
+        this.rateLimiter = rateLimiter;
+        this.tokenBudget = tokenBudget;
+        this.coalescer = coalescer;
+        this.resumes = resumes;
+        this.transcripts = transcripts;
+        this.tiers = tiers;
+        this.maxConcurrentPerSession = maxConcurrentPerSession;
+        this.maxQueuedPerSession = maxQueuedPerSession;
+
+        Gauge.builder("gateway.ws.sessions.active", activeSessions, AtomicInteger::get)
+                .description("open chat WebSocket sessions")
+                .register(registry);
+        Gauge.builder("gateway.ws.outbound.merge.buffered", outboundMergeBuffered, AtomicLong::get)
+                .description("answer frames buffered in the handler before session.send requests them")
+                .register(registry);
+    }
+
+    @Override
+    public List<String> getSubProtocols() {
+        return SUB_PROTOCOLS;
+    }
+
+    @Override
+    public Mono<Void> handle(WebSocketSession session) {
+
+        // assign correlationId for this session
+        String correlationId = UUID.randomUUID().toString();
+
+        // answers go out as protobuf binary frames if the client asked for it, JSON text frames otherwise
+        boolean binary = PROTOBUF_PROTOCOL.equals(session.getHandshakeInfo().getSubProtocol());
+
+        // generations currently running on this session, so 'cancel' can stop them
+        InFlightRequests inFlight = new InFlightRequests();
+
+        // bounds how many of them run at once
+        SessionSlots slots = new SessionSlots(maxConcurrentPerSession, maxQueuedPerSession);
+
+        // send initial connected message with correlationId
+        Mono<WebSocketMessage> welcome = Mono.fromSupplier(() ->
+                session.textMessage("{\"type\":\"connected\",\"correlationId\":\"" + correlationId + "\"}")
+        );
+
+        // inbound messages (from browser)
+        Flux<WebSocketMessage> inbound = session.receive();
+
+        // frames of this session produced but not yet taken by session.send
+        AtomicLong pending = new AtomicLong();
+
+        // We'll react to 'start' messages by calling gRPC stream and forwarding tokens.
+        Flux<WebSocketMessage> outbound = inbound.flatMap(msg -> Flux.from(onMessage(session, correlationId, binary, inFlight, slots, msg))
+                        .doOnNext(frame -> {
+                            pending.incrementAndGet();
+                            outboundMergeBuffered.incrementAndGet();
+                        }))
+                .doOnNext(frame -> {
+                    pending.decrementAndGet();
+                    outboundMergeBuffered.decrementAndGet();
+                })
+                .onErrorResume(e -> Mono.just(session.textMessage("{\"type\":\"error\",\"error\":"
+                        + json(errorCode(correlationId, null, e)) + "}")))
+                // frames are pooled buffers: release the ones dropped on the way (e.g. when the session closes)
+                .doOnDiscard(WebSocketMessage.class, WebSocketMessage::release);
+
+        // merge welcome message and outbound stream
+        return session.send(welcome.concatWith(outbound)).and(Mono.never())
+                .doOnSubscribe(s -> activeSessions.incrementAndGet())
+                .doFinally(signal -> {
+                    activeSessions.decrementAndGet();
+                    // frames still buffered when the session ends are dropped with it
+                    outboundMergeBuffered.addAndGet(-pending.getAndSet(0));
+                });
+    }
+
+    private Publisher<WebSocketMessage> onMessage(WebSocketSession session, String correlationId, boolean binary,
+                                                  InFlightRequests inFlight, SessionSlots slots, WebSocketMessage msg) {
+        String payload = msg.getPayloadAsText();
+        try {
+            JsonNode node = om.readTree(payload);
+            String type = node.has("type") ? node.get("type").asText() : "start";
+            if ("start".equals(type)) {
+                String query = node.has("query") ? node.get("query").asText() : "";
+                String userId = node.has("userId") ? node.get("userId").asText() : session.getId();
+                String requestId = node.hasNonNull("requestId") ? node.get("requestId").asText() : UUID.randomUUID().toString();
+                // questions with the same conversationId are answered with the earlier turns as context
+                String conversationId = node.hasNonNull("conversationId") ? node.get("conversationId").asText() : null;
+                ChatFrameEncoder encoder = ChatFrameEncoder.forRequest(binary, session.bufferFactory(), requestId);
+
+                // ids are stored with the transcript, so they must fit its columns
+                if (tooLong(userId) || tooLong(requestId) || tooLong(conversationId)) {
+                    return Mono.just(encoder.error("invalid_parameters"));
+                }
+
+                // optional model, maxTokens, temperature and stop; maxTokens is capped to the user's tier
+                GenerationParams params;
+                try {
+                    params = generationParams(node).capped(tiers.maxTokensOf(userId));
+                } catch (IllegalArgumentException e) {
+                    return Mono.just(encoder.error("invalid_parameters"));
+                }
+
+                // rate limit per userId
+                if (!rateLimiter.tryConsume(userId)) {
+                    return Mono.just(encoder.error("rate_limited"));
+                }
+
+                // users who used up their generated-token budget are refused before we reach the LLM
+                if (!tokenBudget.hasBudget(userId)) {
+                    return Mono.just(encoder.error("token_budget_exceeded"));
+                }
+
+                Sinks.One<Boolean> cancelSignal = inFlight.register(requestId);
+                if (cancelSignal == null) {
+                    return Mono.just(encoder.error("duplicate_request_id"));
+                }
+
+                // at most max-concurrent-per-session generations run at once, a few more may wait for a slot
+                SessionSlots.Ticket ticket = slots.tryEnter();
+                if (ticket == null) {
+                    inFlight.finish(requestId, cancelSignal);
+                    return Mono.just(encoder.error("too_many_requests"));
+                }
+
+                // stream tokens back once a slot is free, from the response cache or a gRPC call.
+                // The tokens go through a replay buffer so a client that reconnects can 'resume' the answer,
+                // and the finished turn is saved behind the stream's back;
+                // a 'cancel' for this request cuts the stream (or the wait), which cancels the gRPC call
+                ResumeRegistry.ResumableStream[] resumable = new ResumeRegistry.ResumableStream[1];
+                Flux<String> tokens = ticket.ready().thenMany(Flux.defer(() -> {
+                    Flux<String> upstream = transcripts.record(correlationId, conversationId, requestId, userId, query,
+                            chatStreams.stream(correlationId, conversationId, userId, query, params));
+                    resumable[0] = resumes.open(correlationId, requestId, upstream);
+                    return resumable[0] != null ? resumable[0].from(0) : upstream;
+                }));
+                Runnable onCancel = () -> {
+                    if (resumable[0] != null) {
+                        resumable[0].cancel();
+                    }
+                };
+                Flux<WebSocketMessage> answer = answer(correlationId, tokens, 0, encoder, inFlight, requestId,
+                        cancelSignal, onCancel);
+
+                // 'accepted' tells the client the request id before any token of it arrives
+                return Mono.just(encoder.accepted())
+                        .concatWith(answer)
+                        .doFinally(signal -> {
+                            ticket.release();
+                            inFlight.finish(requestId, cancelSignal);
+                        });
+            } else if ("resume".equals(type)) {
+                // continue an answer started on an earlier (lost) connection, from the client's last token offset
+                String resumeOf = node.hasNonNull("correlationId") ? node.get("correlationId").asText() : correlationId;
+                String requestId = node.hasNonNull("requestId") ? node.get("requestId").asText() : "";
+                long offset = Math.max(0, node.path("offset").asLong(0));
+                ChatFrameEncoder encoder = ChatFrameEncoder.forRequest(binary, session.bufferFactory(), requestId);
+
+                ResumeRegistry.ResumableStream resumable = resumes.find(resumeOf, requestId);
+                if (resumable == null) {
+                    return Mono.just(encoder.error("resume_not_found"));
+                }
+                Sinks.One<Boolean> cancelSignal = inFlight.register(requestId);
+                if (cancelSignal == null) {
+                    return Mono.just(encoder.error("duplicate_request_id"));
+                }
+
+                // a resumed answer holds a session slot like any other, so resumes cannot pile up on one session
+                SessionSlots.Ticket ticket = slots.tryEnter();
+                if (ticket == null) {
+                    inFlight.finish(requestId, cancelSignal);
+                    return Mono.just(encoder.error("too_many_requests"));
+                }
+                Flux<String> tokens = ticket.ready().thenMany(resumable.resume(offset));
+                return answer(correlationId, tokens, offset, encoder, inFlight, requestId, cancelSignal,
+                        resumable::cancel)
+                        .doFinally(signal -> {
+                            ticket.release();
+                            inFlight.finish(requestId, cancelSignal);
+                        });
+            } else if ("cancel".equals(type)) {
+                // cancel one request, or everything running on this session when no id is given
+                if (node.hasNonNull("requestId")) {
+                    String requestId = node.get("requestId").asText();
+                    boolean cancelled = inFlight.cancel(requestId);
+                    return Mono.just(session.textMessage("{\"type\":\"cancel_ack\",\"requestId\":" + json(requestId)
+                            + ",\"cancelled\":" + cancelled + "}"));
+                }
+                int cancelled = inFlight.cancelAll();
+                return Mono.just(session.textMessage("{\"type\":\"cancel_ack\",\"cancelled\":" + cancelled + "}"));
+            } else {
+                return Mono.just(session.textMessage("{\"type\":\"error\",\"error\":\"unknown_type\"}"));
+            }
+        } catch (Exception e) {
+            return Mono.just(session.textMessage("{\"type\":\"error\",\"error\":\"invalid_json\"}"));
+        }
+    }
+
+    /**
+     * Coalesce {@code tokens} into frames tagged with their offset in the answer, starting at {@code offset};
+     * end with 'complete', or with an error frame. A 'cancel' cuts the stream and runs {@code onCancel}.
+     */
+    private Flux<WebSocketMessage> answer(String correlationId, Flux<String> tokens, long offset,
+                                          ChatFrameEncoder encoder, InFlightRequests inFlight, String requestId,
+                                          Sinks.One<Boolean> cancelSignal, Runnable onCancel) {
+        return Flux.defer(() -> {
+                    long[] next = {offset};
+                    return coalescer.coalesce(tokens)
+                            .takeUntilOther(cancelSignal.asMono().doOnNext(v -> onCancel.run()))
+                            // batch them into frames and encode them straight into websocket buffers
+                            .map(frame -> {
+                                long first = next[0];
+                                next[0] += frame.size();
+                                return encoder.tokens(first, frame);
+                            });
+                })
+                .onErrorResume(ex -> Flux.just(encoder.error(errorCode(correlationId, requestId, ex))))
+                // cancelled requests already got their cancel_ack, so no 'complete' for them
+                .concatWith(Mono.defer(() -> inFlight.finish(requestId, cancelSignal)
+                        ? Mono.just(encoder.complete())
+                        : Mono.empty()));
+    }
+
+    /**
+     * The code an error frame carries. Clients only ever see a fixed set of codes: exception messages can hold
+     * hosts, statuses or SQL, so anything that is not a known rejection or timeout is logged here with the
+     * session's correlation id and reported as upstream_error.
+     */
+    private static String errorCode(String correlationId, String requestId, Throwable e) {
+        if (e instanceof StreamRejectedException rejected) {
+            return rejected.code();
+        }
+        if (e instanceof TimeoutException && TIMEOUT_CODES.contains(e.getMessage())) {
+            log.debug("request {} of session {} timed out: {}", requestId, correlationId, e.getMessage());
+            return e.getMessage();
+        }
+        log.warn("request {} of session {} failed", requestId, correlationId, e);
+        return "upstream_error";
+    }
+
+    private static boolean tooLong(String id) {
+        return id != null && id.length() > ChatTurn.MAX_ID_LENGTH;
+    }
+
+    private static GenerationParams generationParams(JsonNode node) {
+        // asInt/asDouble would quietly turn "abc" or true into a number, so only JSON numbers are accepted
+        JsonNode maxTokens = node.path("maxTokens");
+        if (!maxTokens.isMissingNode() && !maxTokens.isNull()
+                && !(maxTokens.isIntegralNumber() && maxTokens.canConvertToInt())) {
+            throw new IllegalArgumentException("maxTokens is not an integer");
+        }
+        JsonNode temperature = node.path("temperature");
+        if (!temperature.isMissingNode() && !temperature.isNull() && !temperature.isNumber()) {
+            throw new IllegalArgumentException("temperature is not a number");
+        }
+        List<String> stop = new ArrayList<>();
+        JsonNode stopNode = node.path("stop");
+        if (stopNode.isTextual()) {
+            stop.add(stopNode.asText());
+        } else {
+            stopNode.forEach(s -> stop.add(s.asText()));
+        }
+        return new GenerationParams(
+                node.hasNonNull("model") ? node.get("model").asText() : null,
+                maxTokens.asInt(0),
+                temperature.isNumber() ? temperature.floatValue() : null,
+                stop);
+    }
+
+    private String json(Object value) {
+        try {
+            return om.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("failed to encode frame", e);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.seya.ai.assistant.gatewayservice.ws;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-connection permessage-deflate size threshold and meter.
+ * As the deflate encoder's filter it sees every outgoing data frame before compression: frames below
+ * min-frame-bytes are skipped (sent uncompressed), for the others the raw size and start time are noted.
+ * As an outbound handler placed in front of the encoder (towards the socket) it sees the compressed frame
+ * and records ratio and time. Both run on the channel's event loop within the same write, so plain fields suffice.
+ */
+final class DeflateMeter extends ChannelOutboundHandlerAdapter implements WebSocketExtensionFilter {
+
+    private final Metrics metrics;
+    private final int minFrameBytes;
+
+    private int rawBytes = -1;
+    private long startNanos;
+
+    DeflateMeter(Metrics metrics, int minFrameBytes) {
+        this.metrics = metrics;
+        this.minFrameBytes = minFrameBytes;
+    }
+
+    @Override
+    public boolean mustSkip(WebSocketFrame frame) {
+        int size = frame.content().readableBytes();
+        if (size < minFrameBytes) {
+            metrics.skipped.increment();
+            return true;
+        }
+        rawBytes = size;
+        startNanos = System.nanoTime();
+        return false;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (rawBytes >= 0 && msg instanceof WebSocketFrame frame && (frame.rsv() & WebSocketExtension.RSV1) != 0) {
+            long elapsed = System.nanoTime() - startNanos;
+            int compressed = frame.content().readableBytes();
+            metrics.time.record(elapsed, TimeUnit.NANOSECONDS);
+            metrics.ratio.record(rawBytes == 0 ? 1.0 : (double) compressed / rawBytes);
+            metrics.bytesIn.increment(rawBytes);
+            metrics.bytesOut.increment(compressed);
+            rawBytes = -1;
+        }
+        super.write(ctx, msg, promise);
+    }
+
+    /**
+     * Meters shared by all connections.
+     */
+    static final class Metrics {
+
+        final Timer time;
+        final DistributionSummary ratio;
+        final Counter bytesIn;
+        final Counter bytesOut;
+        final Counter skipped;
+
+        Metrics(MeterRegistry registry) {
+            time = Timer.builder("gateway.ws.deflate.time")
+                    .description("time spent compressing one outgoing frame")
+                    .register(registry);
+            ratio = DistributionSummary.builder("gateway.ws.deflate.ratio")
+                    .description("compressed size / original size of an outgoing frame")
+                    .register(registry);
+            bytesIn = Counter.builder("gateway.ws.deflate.bytes")
+                    .tag("stage", "original")
+                    .baseUnit("bytes")
+                    .register(registry);
+            bytesOut = Counter.builder("gateway.ws.deflate.bytes")
+                    .tag("stage", "compressed")
+                    .baseUnit("bytes")
+                    .register(registry);
+            skipped = Counter.builder("gateway.ws.deflate.skipped")
+                    .description("frames below min-frame-bytes sent uncompressed")
+                    .register(registry);
+        }
+    }
+}
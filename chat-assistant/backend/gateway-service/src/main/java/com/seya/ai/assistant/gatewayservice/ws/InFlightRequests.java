@@ -0,0 +1,55 @@
+package com.seya.ai.assistant.gatewayservice.ws;
+
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-session registry of in-flight generations keyed by request id.
+ * Each request gets a cancel signal; the token stream is cut with takeUntilOther(signal), so cancelling
+ * a request cancels its subscription and with it the upstream gRPC call.
+ */
+final class InFlightRequests {
+
+    private final ConcurrentHashMap<String, Sinks.One<Boolean>> requests = new ConcurrentHashMap<>();
+
+    /**
+     * Register a new request. Returns its cancel signal, or null if the request id is already in flight.
+     */
+    Sinks.One<Boolean> register(String requestId) {
+        Sinks.One<Boolean> signal = Sinks.one();
+        return requests.putIfAbsent(requestId, signal) == null ? signal : null;
+    }
+
+    /**
+     * Remove a request that ended on its own. Returns false if it was cancelled in the meantime.
+     */
+    boolean finish(String requestId, Sinks.One<Boolean> signal) {
+        return requests.remove(requestId, signal);
+    }
+
+    /**
+     * Cancel a single request. Returns false if the request is unknown or already finished.
+     */
+    boolean cancel(String requestId) {
+        Sinks.One<Boolean> signal = requests.remove(requestId);
+        if (signal == null) {
+            return false;
+        }
+        signal.tryEmitValue(Boolean.TRUE);
+        return true;
+    }
+
+    /**
+     * Cancel every request of the session. Returns the number of requests cancelled.
+     */
+    int cancelAll() {
+        int cancelled = 0;
+        for (String requestId : requests.keySet()) {
+            if (cancel(requestId)) {
+                cancelled++;
+            }
+        }
+        return cancelled;
+    }
+}
@@ -0,0 +1,233 @@
+package com.seya.ai.assistant.gatewayservice.ws;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * JSON text frames (the default sub-protocol): encodes the accepted, token, tokens, complete and error frames of one request
+ * straight into (pooled) data buffers.
+ * The JSON around the payload is precomputed per request. A frame's buffer is allocated at an upper bound of its
+ * size, six bytes per char of text (an escaped control character), and tokens are escaped and UTF-8 encoded into
+ * it in one pass, so a frame costs the buffer and the message wrapping it and no copy; the price is the unused
+ * tail of the buffer, a few bytes per char for typical text.
+ * Output is byte-for-byte what Jackson would produce for the same frame.
+ * Not thread-safe; the frames of one request are produced one after another.
+ */
+final class JsonFrameEncoder implements ChatFrameEncoder {
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DATA = ",\"data\":".getBytes(StandardCharsets.US_ASCII);
+    // digits of the largest long
+    private static final int MAX_LONG_LENGTH = 19;
+
+    private final DataBufferFactory bufferFactory;
+
+    // {"type":"token","requestId":"...","offset":
+    private final byte[] tokenPrefix;
+    // {"type":"tokens","requestId":"...","offset":
+    private final byte[] tokensPrefix;
+    // {"type":"error","requestId":"...","error":
+    private final byte[] errorPrefix;
+    // {"type":"complete","requestId":"..."}
+    private final byte[] completeFrame;
+    // {"type":"accepted","requestId":"..."}
+    private final byte[] acceptedFrame;
+
+    JsonFrameEncoder(DataBufferFactory bufferFactory, String requestId) {
+        this.bufferFactory = bufferFactory;
+        this.tokenPrefix = precompute("{\"type\":\"token\",\"requestId\":", requestId, ",\"offset\":");
+        this.tokensPrefix = precompute("{\"type\":\"tokens\",\"requestId\":", requestId, ",\"offset\":");
+        this.errorPrefix = precompute("{\"type\":\"error\",\"requestId\":", requestId, ",\"error\":");
+        this.completeFrame = precompute("{\"type\":\"complete\",\"requestId\":", requestId, "}");
+        this.acceptedFrame = precompute("{\"type\":\"accepted\",\"requestId\":", requestId, "}");
+    }
+
+    /**
+     * A single token keeps the {"type":"token"} frame; coalesced tokens go out as {"type":"tokens","data":[...]}.
+     */
+    @Override
+    public WebSocketMessage tokens(long offset, List<String> tokens) {
+        if (tokens.size() == 1) {
+            return token(offset, tokens.get(0));
+        }
+        int maxLength = tokensPrefix.length + MAX_LONG_LENGTH + DATA.length + 3;
+        for (String token : tokens) {
+            maxLength += maxLength(token) + 1;
+        }
+        DataBuffer buffer = bufferFactory.allocateBuffer(maxLength);
+        try (DataBuffer.ByteBufferIterator writable = buffer.writableByteBuffers()) {
+            ByteBuffer out = writable.next();
+            int start = out.position();
+            out.put(tokensPrefix);
+            writeLong(out, offset);
+            out.put(DATA);
+            out.put((byte) '[');
+            for (int i = 0; i < tokens.size(); i++) {
+                if (i > 0) {
+                    out.put((byte) ',');
+                }
+                writeString(out, tokens.get(i));
+            }
+            out.put((byte) ']');
+            out.put((byte) '}');
+            return message(buffer, out.position() - start);
+        }
+    }
+
+    WebSocketMessage token(long offset, String token) {
+        DataBuffer buffer = bufferFactory.allocateBuffer(
+                tokenPrefix.length + MAX_LONG_LENGTH + DATA.length + maxLength(token) + 1);
+        try (DataBuffer.ByteBufferIterator writable = buffer.writableByteBuffers()) {
+            ByteBuffer out = writable.next();
+            int start = out.position();
+            out.put(tokenPrefix);
+            writeLong(out, offset);
+            out.put(DATA);
+            writeString(out, token);
+            out.put((byte) '}');
+            return message(buffer, out.position() - start);
+        }
+    }
+
+    @Override
+    public WebSocketMessage error(String error) {
+        DataBuffer buffer = bufferFactory.allocateBuffer(errorPrefix.length + maxLength(error) + 1);
+        try (DataBuffer.ByteBufferIterator writable = buffer.writableByteBuffers()) {
+            ByteBuffer out = writable.next();
+            int start = out.position();
+            out.put(errorPrefix);
+            writeString(out, error);
+            out.put((byte) '}');
+            return message(buffer, out.position() - start);
+        }
+    }
+
+    @Override
+    public WebSocketMessage complete() {
+        return fixed(completeFrame);
+    }
+
+    @Override
+    public WebSocketMessage accepted() {
+        return fixed(acceptedFrame);
+    }
+
+    private WebSocketMessage fixed(byte[] frame) {
+        DataBuffer buffer = bufferFactory.allocateBuffer(frame.length);
+        buffer.write(frame);
+        return new WebSocketMessage(WebSocketMessage.Type.TEXT, buffer);
+    }
+
+    /**
+     * Wrap a buffer of which {@code written} bytes were written through one of its writable ByteBuffers.
+     */
+    private static WebSocketMessage message(DataBuffer buffer, int written) {
+        buffer.writePosition(buffer.writePosition() + written);
+        return new WebSocketMessage(WebSocketMessage.Type.TEXT, buffer);
+    }
+
+    private static byte[] precompute(String head, String requestId, String tail) {
+        ByteBuffer out = ByteBuffer.allocate(head.length() + maxLength(requestId) + tail.length());
+        writeAscii(out, head);
+        writeString(out, requestId);
+        writeAscii(out, tail);
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    /**
+     * Most bytes {@link #writeString} can take for {@code s}: an escaped control character is 6 bytes per char.
+     */
+    private static int maxLength(String s) {
+        return s == null ? 4 : s.length() * 6 + 2;
+    }
+
+    private static void writeAscii(ByteBuffer out, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            out.put((byte) s.charAt(i));
+        }
+    }
+
+    private static void writeLong(ByteBuffer out, long value) {
+        // offsets are small and never negative
+        if (value == 0) {
+            out.put((byte) '0');
+            return;
+        }
+        int digits = 0;
+        for (long v = value; v > 0; v /= 10) {
+            digits++;
+        }
+        int p = out.position();
+        for (int i = p + digits - 1; i >= p; i--) {
+            out.put(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        out.position(p + digits);
+    }
+
+    /**
+     * JSON string literal (or null) in UTF-8. Unpaired surrogates become '?', as in String.getBytes.
+     */
+    private static void writeString(ByteBuffer out, String s) {
+        if (s == null) {
+            writeAscii(out, "null");
+            return;
+        }
+        int n = s.length();
+        out.put((byte) '"');
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    out.put((byte) c);
+                } else {
+                    escape(out, c);
+                }
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    out.put((byte) (0xF0 | (cp >> 18)));
+                    out.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                    out.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                    out.put((byte) (0x80 | (cp & 0x3F)));
+                } else {
+                    out.put((byte) '?');
+                }
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        out.put((byte) '"');
+    }
+
+    private static void escape(ByteBuffer out, char c) {
+        out.put((byte) '\\');
+        switch (c) {
+            case '"' -> out.put((byte) '"');
+            case '\\' -> out.put((byte) '\\');
+            case '\n' -> out.put((byte) 'n');
+            case '\r' -> out.put((byte) 'r');
+            case '\t' -> out.put((byte) 't');
+            case '\b' -> out.put((byte) 'b');
+            case '\f' -> out.put((byte) 'f');
+            default -> {
+                out.put((byte) 'u');
+                out.put((byte) '0');
+                out.put((byte) '0');
+                out.put(HEX[c >> 4]);
+                out.put(HEX[c & 0xF]);
+            }
+        }
+    }
+}
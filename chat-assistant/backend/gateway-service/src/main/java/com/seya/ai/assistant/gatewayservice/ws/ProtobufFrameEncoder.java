@@ -0,0 +1,112 @@
+package com.seya.ai.assistant.gatewayservice.ws;
+
+import com.example.gateway.chat.ChatFrame;
+import com.google.protobuf.CodedOutputStream;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Binary frames (sub-protocol chat.v1.protobuf): one {@link ChatFrame} per binary message.
+ * The type and request_id fields are serialized once per request; per frame only the tokens and offset
+ * (or the error) are appended, in field order, so the bytes equal {@code ChatFrame.toByteArray()}.
+ */
+final class ProtobufFrameEncoder implements ChatFrameEncoder {
+
+    private static final int TOKENS_FIELD = ChatFrame.TOKENS_FIELD_NUMBER;
+    private static final int ERROR_FIELD = ChatFrame.ERROR_FIELD_NUMBER;
+    private static final int OFFSET_FIELD = ChatFrame.OFFSET_FIELD_NUMBER;
+
+    private final DataBufferFactory bufferFactory;
+    private final byte[] tokensPrefix;
+    private final byte[] errorPrefix;
+    private final byte[] completeFrame;
+    private final byte[] acceptedFrame;
+
+    private byte[] scratch = new byte[256];
+
+    ProtobufFrameEncoder(DataBufferFactory bufferFactory, String requestId) {
+        this.bufferFactory = bufferFactory;
+        this.tokensPrefix = ChatFrame.newBuilder()
+                .setType(ChatFrame.Type.TOKENS).setRequestId(requestId).build().toByteArray();
+        this.errorPrefix = ChatFrame.newBuilder()
+                .setType(ChatFrame.Type.ERROR).setRequestId(requestId).build().toByteArray();
+        this.completeFrame = ChatFrame.newBuilder()
+                .setType(ChatFrame.Type.COMPLETE).setRequestId(requestId).build().toByteArray();
+        this.acceptedFrame = ChatFrame.newBuilder()
+                .setType(ChatFrame.Type.ACCEPTED).setRequestId(requestId).build().toByteArray();
+    }
+
+    @Override
+    public WebSocketMessage tokens(long offset, List<String> tokens) {
+        int size = tokensPrefix.length;
+        for (int i = 0; i < tokens.size(); i++) {
+            size += CodedOutputStream.computeStringSize(TOKENS_FIELD, tokens.get(i));
+        }
+        if (offset != 0) {
+            size += CodedOutputStream.computeUInt64Size(OFFSET_FIELD, offset);
+        }
+        CodedOutputStream out = start(tokensPrefix, size);
+        try {
+            for (int i = 0; i < tokens.size(); i++) {
+                out.writeString(TOKENS_FIELD, tokens.get(i));
+            }
+            // proto3 leaves a zero offset out
+            if (offset != 0) {
+                out.writeUInt64(OFFSET_FIELD, offset);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to encode frame", e);
+        }
+        return message(size);
+    }
+
+    @Override
+    public WebSocketMessage error(String error) {
+        if (error == null || error.isEmpty()) {
+            start(errorPrefix, errorPrefix.length);
+            return message(errorPrefix.length);
+        }
+        int size = errorPrefix.length + CodedOutputStream.computeStringSize(ERROR_FIELD, error);
+        CodedOutputStream out = start(errorPrefix, size);
+        try {
+            out.writeString(ERROR_FIELD, error);
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to encode frame", e);
+        }
+        return message(size);
+    }
+
+    @Override
+    public WebSocketMessage complete() {
+        return fixed(completeFrame);
+    }
+
+    @Override
+    public WebSocketMessage accepted() {
+        return fixed(acceptedFrame);
+    }
+
+    private WebSocketMessage fixed(byte[] frame) {
+        DataBuffer buffer = bufferFactory.allocateBuffer(frame.length);
+        buffer.write(frame);
+        return new WebSocketMessage(WebSocketMessage.Type.BINARY, buffer);
+    }
+
+    private CodedOutputStream start(byte[] prefix, int size) {
+        if (size > scratch.length) {
+            scratch = new byte[Math.max(scratch.length * 2, size)];
+        }
+        System.arraycopy(prefix, 0, scratch, 0, prefix.length);
+        return CodedOutputStream.newInstance(scratch, prefix.length, size - prefix.length);
+    }
+
+    private WebSocketMessage message(int size) {
+        DataBuffer buffer = bufferFactory.allocateBuffer(size);
+        buffer.write(scratch, 0, size);
+        return new WebSocketMessage(WebSocketMessage.Type.BINARY, buffer);
+    }
+}
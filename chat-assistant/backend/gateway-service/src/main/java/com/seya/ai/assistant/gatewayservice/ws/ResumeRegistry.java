@@ -0,0 +1,310 @@
+package com.seya.ai.assistant.gatewayservice.ws;
+
+import com.seya.ai.assistant.gatewayservice.infra.ConcurrencySlot;
+import com.seya.ai.assistant.gatewayservice.infra.SharedReplay;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replay buffers of answer streams, keyed by the session's correlationId and the request id, so a client that lost
+ * its WebSocket can send {@code resume} on a new one and get the rest of the answer without a second LLM call.
+ * The upstream token stream is shared through a replay buffer: a resumed subscriber skips the tokens it already
+ * has and then follows the live stream. Upstream is asked for no more than the reader asks for, so once the last
+ * subscriber is gone the answer pauses, and its concurrency-limit slot is given back until a resume takes it again.
+ * A paused answer is kept for grace-seconds; if nobody resumes by then it is cancelled. Finished answers stay
+ * resumable for ttl-seconds.
+ * At most max-streams answers are held, and their buffered tokens are kept within max-bytes (estimated heap size):
+ * when a token takes the total over budget, or an answer is opened or loses its last reader while it is over,
+ * the oldest answers nobody is reading are dropped. Answers being read are never dropped, so the buffers of live answers may
+ * take the total over budget for a while (they are bounded by the concurrency limit and max tokens); while they
+ * do, new answers are simply not resumable.
+ */
+@Component
+public class ResumeRegistry {
+
+    // rough heap cost of a buffered token beyond its chars: the String, its array and the replay buffer node
+    private static final int TOKEN_OVERHEAD_BYTES = 72;
+
+    private final boolean enabled;
+    private final Duration grace;
+    private final Duration ttl;
+    private final int maxStreams;
+    private final long maxBytes;
+
+    // insertion-ordered, so iteration starts at the oldest answer; guarded by this
+    private final LinkedHashMap<String, ResumableStream> streams = new LinkedHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    private final LongAdder resumed = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    public ResumeRegistry(
+            @Value("${gateway.ws.resume.enabled:true}") boolean enabled,
+            @Value("${gateway.ws.resume.grace-seconds:30}") long graceSeconds,
+            @Value("${gateway.ws.resume.ttl-seconds:120}") long ttlSeconds,
+            @Value("${gateway.ws.resume.max-streams:10000}") int maxStreams,
+            @Value("${gateway.ws.resume.max-bytes:67108864}") long maxBytes) {
+        this.enabled = enabled;
+        this.grace = Duration.ofSeconds(graceSeconds);
+        this.ttl = Duration.ofSeconds(ttlSeconds);
+        this.maxStreams = maxStreams;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Make {@code tokens} resumable under the given ids. Returns null when resuming is disabled or the registry is
+     * full; the caller then streams {@code tokens} directly. A previous answer with the same ids is replaced.
+     */
+    ResumableStream open(String correlationId, String requestId, Flux<String> tokens) {
+        if (!enabled) {
+            return null;
+        }
+        String key = key(correlationId, requestId);
+        ResumableStream stream = new ResumableStream(key, tokens);
+        ResumableStream previous;
+        List<ResumableStream> dropped;
+        synchronized (this) {
+            previous = streams.remove(key);
+            dropped = overBudget();
+            if (streams.size() >= maxStreams || totalBytes.get() > maxBytes) {
+                stream = null;
+            } else {
+                streams.put(key, stream);
+            }
+        }
+        if (previous != null) {
+            previous.cancel();
+        }
+        cancel(dropped);
+        return stream;
+    }
+
+    /**
+     * The answer to resume, or null if it is unknown, expired or was cancelled.
+     */
+    synchronized ResumableStream find(String correlationId, String requestId) {
+        return streams.get(key(correlationId, requestId));
+    }
+
+    private static String key(String correlationId, String requestId) {
+        return correlationId + "/" + requestId;
+    }
+
+    private synchronized void remove(ResumableStream stream) {
+        streams.remove(stream.key, stream);
+    }
+
+    private void trim() {
+        List<ResumableStream> dropped;
+        synchronized (this) {
+            dropped = overBudget();
+        }
+        cancel(dropped);
+    }
+
+    /**
+     * Unregister the oldest answers nobody reads until the buffers fit max-bytes; the caller cancels them
+     * outside the lock.
+     */
+    private List<ResumableStream> overBudget() {
+        if (totalBytes.get() <= maxBytes) {
+            return List.of();
+        }
+        List<ResumableStream> dropped = new ArrayList<>();
+        long bytes = totalBytes.get();
+        Iterator<ResumableStream> it = streams.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            ResumableStream stream = it.next();
+            if (stream.isIdle()) {
+                it.remove();
+                dropped.add(stream);
+                bytes -= stream.bytes();
+            }
+        }
+        return dropped;
+    }
+
+    private void cancel(List<ResumableStream> dropped) {
+        for (ResumableStream stream : dropped) {
+            evicted.increment();
+            stream.cancel();
+        }
+    }
+
+    private static void dispose(Disposable disposable) {
+        if (disposable != null) {
+            disposable.dispose();
+        }
+    }
+
+    public synchronized int size() {
+        return streams.size();
+    }
+
+    /**
+     * Estimated heap held by the replay buffers.
+     */
+    public long sizeBytes() {
+        return totalBytes.get();
+    }
+
+    public long resumed() {
+        return resumed.sum();
+    }
+
+    /**
+     * Answers whose upstream was cancelled because nobody resumed them within the grace period.
+     */
+    public long expired() {
+        return expired.sum();
+    }
+
+    /**
+     * Answers dropped to keep the replay buffers within max-bytes.
+     */
+    public long evicted() {
+        return evicted.sum();
+    }
+
+    final class ResumableStream {
+
+        private final String key;
+        private final ConcurrencySlot slot = new ConcurrencySlot();
+        private final SharedReplay<String> replay;
+
+        // guarded by this
+        private int subscribers;
+        private boolean ended;
+        private boolean cancelled;
+        private long bytes;
+        private Disposable timer;
+
+        private ResumableStream(String key, Flux<String> tokens) {
+            this.key = key;
+            this.replay = new SharedReplay<>(tokens
+                    .doOnNext(this::buffered)
+                    .doFinally(signal -> onUpstreamEnd()),
+                    Context.of(ConcurrencySlot.class, slot));
+        }
+
+        /**
+         * The answer from the given token offset on: the buffered part first, then whatever is still generated.
+         */
+        Flux<String> from(long offset) {
+            return Flux.defer(() -> {
+                attach();
+                return replay.from(offset);
+            }).doFinally(signal -> detach());
+        }
+
+        /**
+         * Like {@link #from(long)}, for a client picking the answer up again; counted as a resume once subscribed.
+         */
+        Flux<String> resume(long offset) {
+            return from(offset).doOnSubscribe(s -> resumed.increment());
+        }
+
+        /**
+         * Stop the upstream now and forget the answer, e.g. after an explicit cancel.
+         */
+        void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                dispose(timer);
+                // the buffer goes away with the stream
+                totalBytes.addAndGet(-bytes);
+                bytes = 0;
+            }
+            remove(this);
+            replay.cancel();
+        }
+
+        private synchronized boolean isIdle() {
+            return subscribers == 0;
+        }
+
+        private synchronized long bytes() {
+            return bytes;
+        }
+
+        private void buffered(String token) {
+            long size = TOKEN_OVERHEAD_BYTES + 2L * token.length();
+            long total;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                bytes += size;
+                total = totalBytes.addAndGet(size);
+            }
+            // only the token that takes the total over budget looks for answers to drop; after that, answers
+            // losing their last reader do
+            if (total > maxBytes && total - size <= maxBytes) {
+                trim();
+            }
+        }
+
+        private synchronized void attach() {
+            subscribers++;
+            // a pending grace timer is called off; the retention timer of a finished answer keeps running
+            if (!ended) {
+                dispose(timer);
+                timer = null;
+            }
+            slot.resume();
+        }
+
+        private void detach() {
+            synchronized (this) {
+                // the last reader left while the answer is still generating: give the client a moment to come back
+                if (--subscribers > 0 || cancelled) {
+                    return;
+                }
+                if (!ended) {
+                    timer = Mono.delay(grace).subscribe(v -> expire());
+                    // nothing more is asked of upstream meanwhile, so its slot may serve someone else
+                    slot.pause();
+                }
+            }
+            // nobody reads it now, so it may be dropped to make room
+            trim();
+        }
+
+        private void expire() {
+            synchronized (this) {
+                if (subscribers > 0 || ended || cancelled) {
+                    return;
+                }
+            }
+            expired.increment();
+            cancel();
+        }
+
+        private void onUpstreamEnd() {
+            synchronized (this) {
+                ended = true;
+                dispose(timer);
+                timer = null;
+                if (!cancelled) {
+                    // the complete answer stays in the buffer for late resumes
+                    timer = Mono.delay(ttl).subscribe(v -> cancel());
+                    return;
+                }
+            }
+            remove(this);
+        }
+    }
+}
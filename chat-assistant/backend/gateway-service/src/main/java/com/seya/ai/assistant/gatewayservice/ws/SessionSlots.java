@@ -0,0 +1,98 @@
+package com.seya.ai.assistant.gatewayservice.ws;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayDeque;
+
+/**
+ * Per-session cap on concurrent generations. A start beyond max-active waits for a slot in arrival order;
+ * beyond max-queued waiting starts it is refused right away.
+ */
+final class SessionSlots {
+
+    private final int maxActive;
+    private final int maxQueued;
+
+    // guarded by this
+    private int active;
+    private final ArrayDeque<Ticket> waiting = new ArrayDeque<>();
+
+    SessionSlots(int maxActive, int maxQueued) {
+        this.maxActive = maxActive;
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Take a slot or a place in the queue. Returns null if the queue is full.
+     */
+    Ticket tryEnter() {
+        Ticket ticket = new Ticket();
+        synchronized (this) {
+            if (active < maxActive) {
+                active++;
+                ticket.admitted = true;
+            } else if (waiting.size() < maxQueued) {
+                waiting.add(ticket);
+                return ticket;
+            } else {
+                return null;
+            }
+        }
+        ticket.ready.tryEmitEmpty();
+        return ticket;
+    }
+
+    private void release(Ticket ticket) {
+        Ticket next;
+        synchronized (this) {
+            if (ticket.released) {
+                return;
+            }
+            ticket.released = true;
+            if (!ticket.admitted) {
+                // gave up while waiting
+                waiting.remove(ticket);
+                return;
+            }
+            next = waiting.poll();
+            if (next != null) {
+                next.admitted = true;
+            } else {
+                active--;
+            }
+        }
+        if (next != null) {
+            next.ready.tryEmitEmpty();
+        }
+    }
+
+    synchronized int active() {
+        return active;
+    }
+
+    synchronized int queued() {
+        return waiting.size();
+    }
+
+    final class Ticket {
+
+        private final Sinks.Empty<Void> ready = Sinks.empty();
+        private boolean admitted; // guarded by SessionSlots.this
+        private boolean released; // guarded by SessionSlots.this
+
+        /**
+         * Completes once the generation may start.
+         */
+        Mono<Void> ready() {
+            return ready.asMono();
+        }
+
+        /**
+         * Give the slot (or the place in the queue) back. Idempotent.
+         */
+        void release() {
+            SessionSlots.this.release(this);
+        }
+    }
+}
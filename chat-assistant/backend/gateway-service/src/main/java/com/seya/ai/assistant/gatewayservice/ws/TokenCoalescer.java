@@ -0,0 +1,140 @@
+package com.seya.ai.assistant.gatewayservice.ws;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Groups LLM tokens into WebSocket frames so a long answer costs a handful of frames instead of one per token.
+ * The first token of every stream is always sent on its own so time-to-first-token is not affected.
+ */
+@Component
+public class TokenCoalescer {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenCoalescer.class);
+
+    // buffers split into frames ahead of demand; one is enough, each holds up to max-tokens
+    private static final int FRAME_PREFETCH = 1;
+
+    private final boolean enabled;
+    private final Duration maxDelay;
+    private final int maxTokens;
+    private final int maxBytes;
+
+    // tokensIn is what we would have sent without coalescing, framesOut is what we actually send
+    private final LongAdder tokensIn = new LongAdder();
+    private final LongAdder framesOut = new LongAdder();
+    private final Disposable reporter;
+    private long reportedTokens;
+    private long reportedFrames;
+
+    public TokenCoalescer(
+            @Value("${gateway.ws.coalesce.enabled:true}") boolean enabled,
+            @Value("${gateway.ws.coalesce.max-delay-ms:25}") long maxDelayMs,
+            @Value("${gateway.ws.coalesce.max-tokens:64}") int maxTokens,
+            @Value("${gateway.ws.coalesce.max-bytes:2048}") int maxBytes,
+            @Value("${gateway.ws.coalesce.report-interval-seconds:60}") long reportIntervalSeconds) {
+        this.enabled = enabled;
+        this.maxDelay = Duration.ofMillis(maxDelayMs);
+        this.maxTokens = maxTokens;
+        this.maxBytes = maxBytes;
+
+        Duration interval = Duration.ofSeconds(reportIntervalSeconds);
+        this.reporter = Flux.interval(interval, interval).subscribe(t -> report(interval));
+    }
+
+    /**
+     * Turn a token stream into a stream of frames (lists of tokens).
+     * After the first token, tokens are buffered until max-delay elapses or max-tokens are collected;
+     * a buffer larger than max-bytes is split so no single frame exceeds it.
+     * Backpressure is kept end to end: a client that stops reading holds at most a buffer or two of tokens here,
+     * and a timer that fires while it is not reading waits for its demand instead of failing the stream.
+     */
+    public Flux<List<String>> coalesce(Flux<String> tokens) {
+        if (!enabled) {
+            return tokens.map(List::of).doOnNext(this::count);
+        }
+        return tokens.switchOnFirst((first, all) -> {
+                    if (!first.hasValue()) {
+                        return all.map(List::of);
+                    }
+                    // first token goes out at once, the rest is batched by time/count
+                    return Flux.just(List.of(first.get()))
+                            .concatWith(all.skip(1)
+                                    .bufferTimeout(maxTokens, maxDelay, true)
+                                    .concatMapIterable(this::splitBySize, FRAME_PREFETCH));
+                })
+                .doOnNext(this::count);
+    }
+
+    private List<List<String>> splitBySize(List<String> buffer) {
+        // frame size is approximated by UTF-16 length, which is close enough for the mostly-ASCII tokens we get
+        int size = 0;
+        for (String token : buffer) {
+            size += token.length();
+        }
+        if (size <= maxBytes) {
+            return List.of(buffer);
+        }
+
+        List<List<String>> frames = new ArrayList<>();
+        List<String> current = new ArrayList<>();
+        size = 0;
+        for (String token : buffer) {
+            if (!current.isEmpty() && size + token.length() > maxBytes) {
+                frames.add(current);
+                current = new ArrayList<>();
+                size = 0;
+            }
+            current.add(token);
+            size += token.length();
+        }
+        frames.add(current);
+        return frames;
+    }
+
+    private void count(List<String> frame) {
+        tokensIn.add(frame.size());
+        framesOut.increment();
+    }
+
+    private void report(Duration interval) {
+        // the counters are cumulative (they are also exported as metrics), so report the delta
+        long tokensTotal = tokensIn.sum();
+        long framesTotal = framesOut.sum();
+        long tokens = tokensTotal - reportedTokens;
+        long frames = framesTotal - reportedFrames;
+        reportedTokens = tokensTotal;
+        reportedFrames = framesTotal;
+        if (tokens == 0) {
+            return;
+        }
+        double seconds = interval.toMillis() / 1000.0;
+        log.info("ws coalescing: {} frames/s before, {} frames/s after ({} tokens per frame)",
+                String.format("%.1f", tokens / seconds),
+                String.format("%.1f", frames / seconds),
+                String.format("%.2f", (double) tokens / frames));
+    }
+
+    public long tokensIn() {
+        return tokensIn.sum();
+    }
+
+    public long framesOut() {
+        return framesOut.sum();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reporter.dispose();
+    }
+}
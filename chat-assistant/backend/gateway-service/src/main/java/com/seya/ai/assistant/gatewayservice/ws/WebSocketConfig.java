@@ -0,0 +1,68 @@
+package com.seya.ai.assistant.gatewayservice.ws;
+
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilter;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilterProvider;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandler;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateServerExtensionHandshaker;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.netty.NettyServerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.handler.SimpleUrlHandlerMapping;
+import org.springframework.web.reactive.socket.WebSocketHandler;
+import reactor.netty.NettyPipeline;
+
+import java.util.Map;
+
+@Configuration
+public class WebSocketConfig {
+
+    @Bean
+    public SimpleUrlHandlerMapping handlerMapping(WebSocketHandler chatWsHandler) {
+        return new SimpleUrlHandlerMapping(Map.of("/ws/chat", chatWsHandler), 10);
+    }
+
+    /**
+     * permessage-deflate (RFC 7692) for WebSocket connections, with context takeover on both sides so repeated
+     * JSON keys and request ids compress well across frames. Frames smaller than min-frame-bytes (typically a
+     * single token) are sent uncompressed: deflating them costs more CPU than the few bytes it saves.
+     * Negotiation happens per connection; clients that do not offer the extension get plain frames.
+     */
+    @Bean
+    public NettyServerCustomizer webSocketDeflate(
+            @Value("${gateway.ws.deflate.enabled:true}") boolean enabled,
+            @Value("${gateway.ws.deflate.level:6}") int level,
+            @Value("${gateway.ws.deflate.min-frame-bytes:256}") int minFrameBytes,
+            MeterRegistry registry) {
+        if (!enabled) {
+            return server -> server;
+        }
+        DeflateMeter.Metrics metrics = new DeflateMeter.Metrics(registry);
+        return server -> server.doOnChannelInit((observer, channel, remoteAddress) -> {
+            ChannelPipeline pipeline = channel.pipeline();
+            if (pipeline.get(NettyPipeline.HttpCodec) == null) {
+                return; // not HTTP/1.1, no WebSocket upgrade possible
+            }
+            DeflateMeter meter = new DeflateMeter(metrics, minFrameBytes);
+            WebSocketExtensionFilterProvider filters = new WebSocketExtensionFilterProvider() {
+                @Override
+                public WebSocketExtensionFilter encoderFilter() {
+                    return meter;
+                }
+
+                @Override
+                public WebSocketExtensionFilter decoderFilter() {
+                    return WebSocketExtensionFilter.NEVER_SKIP;
+                }
+            };
+            // the extension handler only acts on upgrade requests; on the 101 response it installs the deflate
+            // encoder/decoder in its own place, i.e. behind the meter, which then sees the compressed frames
+            pipeline.addAfter(NettyPipeline.HttpCodec, "wsDeflateMeter", meter);
+            pipeline.addAfter("wsDeflateMeter", "wsDeflate", new WebSocketServerExtensionHandler(
+                    new PerMessageDeflateServerExtensionHandshaker(level, false, 15, false, false, filters)));
+        });
+    }
+}
@@ -0,0 +1,163 @@
+package com.seya.ai.assistant.gatewayservice.bench;
+
+import com.example.gateway.grpc.LLMResponse;
+import com.example.gateway.grpc.LLMServiceGrpc;
+import com.example.gateway.grpc.QueryRequest;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process stand-in for the Python llm-service: streams canned tokens after a configurable
+ * time-to-first-token, at a configurable rate, one or several tokens per message, and fails a share of the
+ * streams with UNAVAILABLE.
+ */
+public final class FakeLlmServer implements AutoCloseable {
+
+	/**
+	 * @param ttft             delay before the first token
+	 * @param tokensPerSecond  pace of the tokens after the first one
+	 * @param tokensPerAnswer  tokens in a complete answer
+	 * @param errorProbability share of streams that fail somewhere along the way
+	 * @param tokensPerMessage tokens batched into one LLMResponse after the first token (1: the single-token shape)
+	 */
+	public record Profile(Duration ttft, double tokensPerSecond, int tokensPerAnswer, double errorProbability,
+						  int tokensPerMessage) {
+	}
+
+	private static final String[] WORDS = {
+			"The", " gateway", " streams", " tokens", " back", " to", " the", " browser", ",", " one",
+			" frame", " at", " a", " time", ".", " Ünïcødé", " \"quoted\"", " text", " and", " more"
+	};
+
+	// prebuilt so the fake server itself allocates little per token
+	private static final LLMResponse[] RESPONSES = new LLMResponse[WORDS.length];
+
+	static {
+		for (int i = 0; i < WORDS.length; i++) {
+			RESPONSES[i] = LLMResponse.newBuilder().setToken(WORDS[i]).build();
+		}
+	}
+
+	private static LLMResponse batch(int from, int count) {
+		LLMResponse.Builder message = LLMResponse.newBuilder();
+		for (int i = from; i < from + count; i++) {
+			message.addTokens(WORDS[i % WORDS.length]);
+		}
+		return message.build();
+	}
+
+	private final Server server;
+	private final ScheduledExecutorService timer;
+
+	private FakeLlmServer(Server server, ScheduledExecutorService timer) {
+		this.server = server;
+		this.timer = timer;
+	}
+
+	/**
+	 * Start a server on {@code port} (0 picks a free one).
+	 */
+	public static FakeLlmServer start(int port, Profile profile) throws IOException {
+		ScheduledExecutorService timer = Executors.newScheduledThreadPool(
+				Math.max(2, Runtime.getRuntime().availableProcessors() / 2), r -> {
+					Thread t = new Thread(r, "fake-llm");
+					t.setDaemon(true);
+					return t;
+				});
+		Server server = ServerBuilder.forPort(port)
+				.addService(new Service(profile, timer))
+				.build()
+				.start();
+		return new FakeLlmServer(server, timer);
+	}
+
+	public int port() {
+		return server.getPort();
+	}
+
+	@Override
+	public void close() throws InterruptedException {
+		server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+		timer.shutdownNow();
+	}
+
+	private static final class Service extends LLMServiceGrpc.LLMServiceImplBase {
+
+		private final Profile profile;
+		private final ScheduledExecutorService timer;
+		private final long tokenIntervalNanos;
+		// full batches by first word, prebuilt like RESPONSES
+		private final LLMResponse[] batches = new LLMResponse[WORDS.length];
+
+		Service(Profile profile, ScheduledExecutorService timer) {
+			this.profile = profile;
+			this.timer = timer;
+			this.tokenIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / profile.tokensPerSecond());
+			for (int i = 0; i < WORDS.length; i++) {
+				batches[i] = batch(i, profile.tokensPerMessage());
+			}
+		}
+
+		@Override
+		public void streamResponse(QueryRequest request, StreamObserver<LLMResponse> responseObserver) {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			// a failing stream breaks at a random point, possibly before its first token
+			int failAt = random.nextDouble() < profile.errorProbability()
+					? random.nextInt(profile.tokensPerAnswer() + 1)
+					: -1;
+			Generation generation = new Generation((ServerCallStreamObserver<LLMResponse>) responseObserver, failAt);
+			timer.schedule(generation, profile.ttft().toNanos(), TimeUnit.NANOSECONDS);
+		}
+
+		private final class Generation implements Runnable {
+
+			private final ServerCallStreamObserver<LLMResponse> observer;
+			private final int failAt;
+			private volatile boolean cancelled;
+			private int sent;
+
+			Generation(ServerCallStreamObserver<LLMResponse> observer, int failAt) {
+				this.observer = observer;
+				this.failAt = failAt;
+				observer.setOnCancelHandler(() -> cancelled = true);
+			}
+
+			@Override
+			public void run() {
+				if (cancelled) {
+					return;
+				}
+				if (failAt >= 0 && sent >= failAt) {
+					observer.onError(Status.UNAVAILABLE.withDescription("injected failure").asRuntimeException());
+					return;
+				}
+				if (sent == profile.tokensPerAnswer()) {
+					observer.onNext(LLMResponse.newBuilder().setIsFinal(true).build());
+					observer.onCompleted();
+					return;
+				}
+				// the first token goes out alone, later ones in batches paced as if generated one by one
+				int count = sent == 0 ? 1 : Math.min(profile.tokensPerMessage(), profile.tokensPerAnswer() - sent);
+				if (count == 1) {
+					observer.onNext(RESPONSES[sent % RESPONSES.length]);
+				} else if (count == profile.tokensPerMessage()) {
+					observer.onNext(batches[sent % WORDS.length]);
+				} else {
+					observer.onNext(batch(sent, count));
+				}
+				sent += count;
+				timer.schedule(this, tokenIntervalNanos * count, TimeUnit.NANOSECONDS);
+			}
+		}
+	}
+}
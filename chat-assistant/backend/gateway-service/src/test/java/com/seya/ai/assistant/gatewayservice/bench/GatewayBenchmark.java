@@ -0,0 +1,68 @@
+package com.seya.ai.assistant.gatewayservice.bench;
+
+import com.seya.ai.assistant.gatewayservice.GatewayApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * End-to-end gateway benchmark on one box: fake LLM server, the real gateway on a random port, and the
+ * WebSocket load generator. Runs with test classes on the classpath, e.g.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.seya.ai.assistant.gatewayservice.bench.GatewayBenchmark \
+ *     -Dbench.sessions=2000 -Dbench.tokens-per-second=40
+ * </pre>
+ * Gateway settings can be overridden with the usual system properties (-Dgateway.concurrency.initial-limit=256).
+ */
+public final class GatewayBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int sessions = Integer.getInteger("bench.sessions", 1000);
+		// answers per session; each session is one user, and the per-user rate limit allows 10 per 10 s
+		int requests = Integer.getInteger("bench.requests", 5);
+		FakeLlmServer.Profile profile = new FakeLlmServer.Profile(
+				Duration.ofMillis(Long.getLong("bench.ttft-ms", 200)),
+				Double.parseDouble(System.getProperty("bench.tokens-per-second", "50")),
+				Integer.getInteger("bench.tokens", 200),
+				Double.parseDouble(System.getProperty("bench.error-rate", "0")),
+				Integer.getInteger("bench.tokens-per-message", 1));
+
+		try (FakeLlmServer llm = FakeLlmServer.start(0, profile)) {
+			Map<String, String> defaults = Map.of(
+					"server.port", "0",
+					"llm.gateway.host", "localhost",
+					"llm.gateway.port", String.valueOf(llm.port()),
+					// every query is unique and every session is its own user, but keep the
+					// cache and the per-user limits out of the measurement anyway
+					"gateway.cache.enabled", "false",
+					"gateway.single-flight.enabled", "false",
+					"gateway.token-budget.enabled", "false",
+					"gateway.transcripts.enabled", "false",
+					// no database needed for streaming
+					"spring.autoconfigure.exclude",
+					"org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration,"
+							+ "org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration");
+			// as system properties so they beat application.yml; anything passed with -D wins
+			defaults.forEach((key, value) -> {
+				if (System.getProperty(key) == null) {
+					System.setProperty(key, value);
+				}
+			});
+			ConfigurableApplicationContext gateway = new SpringApplicationBuilder(GatewayApplication.class).run(args);
+			try {
+				int port = gateway.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+				URI uri = URI.create("ws://localhost:" + port + "/ws/chat");
+				System.out.printf("fake LLM %s, %d sessions x %d answers against %s%n", profile, sessions, requests, uri);
+
+				WebSocketLoadGenerator.Report report = new WebSocketLoadGenerator().run(uri, sessions, requests);
+				System.out.println(report.format());
+			} finally {
+				gateway.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package com.seya.ai.assistant.gatewayservice.bench;
+
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import org.springframework.web.reactive.socket.client.ReactorNettyWebSocketClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.netty.http.client.HttpClient;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opens many concurrent sessions against /ws/chat. Each session sends its start messages one after another
+ * (the next one once the previous answer completed) and the generator records time to first token and
+ * answer duration as the client sees them.
+ */
+public final class WebSocketLoadGenerator {
+
+	private final ReactorNettyWebSocketClient client;
+
+	public WebSocketLoadGenerator() {
+		// one connection per session; the pooled default would cap the number of sessions per host
+		this.client = new ReactorNettyWebSocketClient(HttpClient.newConnection());
+	}
+
+	/**
+	 * Run {@code sessions} sessions with {@code requestsPerSession} answers each and block until all are done.
+	 */
+	public Report run(URI uri, int sessions, int requestsPerSession) {
+		Samples ttft = new Samples();
+		Samples duration = new Samples();
+		LongAdder tokens = new LongAdder();
+		LongAdder frames = new LongAdder();
+		LongAdder errors = new LongAdder();
+
+		long start = System.nanoTime();
+		Flux.range(0, sessions)
+				.flatMap(i -> client.execute(uri, session ->
+								runSession(session, "bench-user-" + i, requestsPerSession, ttft, duration, tokens, frames, errors))
+						.onErrorResume(e -> {
+							errors.increment();
+							return Mono.empty();
+						}), sessions)
+				.blockLast();
+		Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+		return new Report(sessions, duration.count(), errors.sum(), tokens.sum(), frames.sum(), elapsed,
+				ttft.sorted(), duration.sorted());
+	}
+
+	private Mono<Void> runSession(WebSocketSession session, String userId, int requests, Samples ttft, Samples duration,
+								  LongAdder tokens, LongAdder frames, LongAdder errors) {
+		Sinks.Many<String> starts = Sinks.many().unicast().onBackpressureBuffer();
+		// receive callbacks of one session are serialized, so plain fields are fine
+		var state = new Object() {
+			int started;
+			long requestStart;
+			boolean firstTokenSeen;
+		};
+		Runnable next = () -> {
+			state.started++;
+			state.requestStart = System.nanoTime();
+			state.firstTokenSeen = false;
+			starts.tryEmitNext("{\"type\":\"start\",\"userId\":\"" + userId + "\",\"query\":\"bench " + userId
+					+ " #" + state.started + "\"}");
+		};
+
+		Mono<Void> send = session.send(starts.asFlux().map(session::textMessage));
+		Mono<Void> receive = session.receive()
+				.map(WebSocketMessage::getPayloadAsText)
+				.takeUntil(text -> {
+					if (text.startsWith("{\"type\":\"connected\"")) {
+						next.run();
+						return false;
+					}
+					boolean token = text.startsWith("{\"type\":\"token\"");
+					if (token || text.startsWith("{\"type\":\"tokens\"")) {
+						frames.increment();
+						// close enough for the bench vocabulary: one token per JSON string in data
+						tokens.add(token ? 1 : countStrings(text));
+						if (!state.firstTokenSeen) {
+							state.firstTokenSeen = true;
+							ttft.add(System.nanoTime() - state.requestStart);
+						}
+						return false;
+					}
+					boolean complete = text.startsWith("{\"type\":\"complete\"");
+					if (!complete && !text.startsWith("{\"type\":\"error\"")) {
+						return false;
+					}
+					if (complete) {
+						duration.add(System.nanoTime() - state.requestStart);
+					} else {
+						errors.increment();
+					}
+					if (state.started == requests) {
+						starts.tryEmitComplete();
+						return true;
+					}
+					next.run();
+					return false;
+				})
+				.then();
+		return Mono.when(send, receive).then(session.close());
+	}
+
+	private static int countStrings(String frame) {
+		int data = frame.indexOf("\"data\":[");
+		int quotes = 0;
+		for (int i = data + 8; i < frame.length(); i++) {
+			char c = frame.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (c == '"') {
+				quotes++;
+			}
+		}
+		return quotes / 2;
+	}
+
+	public record Report(int sessions, long answers, long errors, long tokens, long frames, Duration elapsed,
+						 long[] ttftNanos, long[] durationNanos) {
+
+		public String format() {
+			double seconds = elapsed.toNanos() / 1e9;
+			return String.format(Locale.ROOT,
+					"sessions=%d answers=%d errors=%d elapsed=%.1fs%n"
+							+ "throughput: %.0f tokens/s, %.0f frames/s, %.1f answers/s%n"
+							+ "ttft ms:     %s%n"
+							+ "answer ms:   %s",
+					sessions, answers, errors, seconds,
+					tokens / seconds, frames / seconds, answers / seconds,
+					percentiles(ttftNanos), percentiles(durationNanos));
+		}
+
+		private static String percentiles(long[] sorted) {
+			if (sorted.length == 0) {
+				return "n/a";
+			}
+			return String.format(Locale.ROOT, "p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f",
+					at(sorted, 0.50), at(sorted, 0.90), at(sorted, 0.99), at(sorted, 0.999),
+					sorted[sorted.length - 1] / 1e6);
+		}
+
+		private static double at(long[] sorted, double quantile) {
+			int index = (int) Math.ceil(quantile * sorted.length) - 1;
+			return sorted[Math.max(0, index)] / 1e6;
+		}
+	}
+
+	private static final class Samples {
+
+		private long[] values = new long[1024];
+		private int size;
+
+		synchronized void add(long value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		synchronized int count() {
+			return size;
+		}
+
+		synchronized long[] sorted() {
+			long[] copy = Arrays.copyOf(values, size);
+			Arrays.sort(copy);
+			return copy;
+		}
+	}
+}
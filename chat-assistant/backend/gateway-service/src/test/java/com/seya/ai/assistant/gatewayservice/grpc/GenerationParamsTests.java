@@ -0,0 +1,45 @@
+package com.seya.ai.assistant.gatewayservice.grpc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+class GenerationParamsTests {
+
+	@Test
+	void maxTokensIsCappedToTheTier() {
+		GenerationParams unset = new GenerationParams(null, 0, null, null);
+		assertThat(unset).isEqualTo(GenerationParams.DEFAULT);
+		assertThat(unset.capped(1024).maxTokens()).isEqualTo(1024);
+		assertThat(unset.capped(0).maxTokens()).isZero();
+
+		GenerationParams asked = new GenerationParams("m", 5000, 0.5f, List.of("\n\n"));
+		assertThat(asked.capped(1024)).isEqualTo(new GenerationParams("m", 1024, 0.5f, List.of("\n\n")));
+		assertThat(asked.capped(8192)).isSameAs(asked);
+	}
+
+	@Test
+	void rejectsValuesTheLlmTierWouldNot() {
+		assertThatIllegalArgumentException().isThrownBy(() -> new GenerationParams("", -1, null, List.of()));
+		assertThatIllegalArgumentException().isThrownBy(() -> new GenerationParams("", 0, 2.5f, List.of()));
+		assertThatIllegalArgumentException().isThrownBy(() -> new GenerationParams("", 0, Float.NaN, List.of()));
+		assertThatIllegalArgumentException().isThrownBy(() -> new GenerationParams("", 0, null, List.of("")));
+		assertThatIllegalArgumentException()
+				.isThrownBy(() -> new GenerationParams("", 0, null, List.of("a", "b", "c", "d", "e")));
+		assertThatIllegalArgumentException()
+				.isThrownBy(() -> new GenerationParams("x".repeat(200), 0, null, List.of()));
+	}
+
+	@Test
+	void keyTellsParametersApart() {
+		assertThat(GenerationParams.DEFAULT.key()).isEmpty();
+		assertThat(new GenerationParams("", 100, null, List.of()).key())
+				.isNotEqualTo(new GenerationParams("", 200, null, List.of()).key())
+				.isNotEqualTo(new GenerationParams("", 100, 0f, List.of()).key());
+		assertThat(new GenerationParams("", 0, null, List.of("ab")).key())
+				.isNotEqualTo(new GenerationParams("", 0, null, List.of("a", "b")).key());
+	}
+}
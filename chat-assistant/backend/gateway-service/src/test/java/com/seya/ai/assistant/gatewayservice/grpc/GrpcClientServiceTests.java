@@ -0,0 +1,315 @@
+package com.seya.ai.assistant.gatewayservice.grpc;
+
+import com.seya.ai.assistant.gatewayservice.bench.FakeLlmServer;
+import com.seya.ai.assistant.gatewayservice.config.TierProperties;
+import com.seya.ai.assistant.gatewayservice.infra.AdaptiveConcurrencyLimiter;
+import com.seya.ai.assistant.gatewayservice.infra.UserTierResolver;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ConnectivityState;
+import io.grpc.ForwardingClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GrpcClientServiceTests {
+
+	private static final int REQUEST_WINDOW = 8;
+
+	private final List<AutoCloseable> resources = new ArrayList<>();
+
+	// messages requested from the server over all calls
+	private final AtomicLong requested = new AtomicLong();
+
+	// targets of the calls started and cancelled, in order
+	private final List<String> started = new CopyOnWriteArrayList<>();
+	private final List<String> cancelled = new CopyOnWriteArrayList<>();
+
+	private final ClientInterceptor recordCalls = new ClientInterceptor() {
+		@Override
+		public <Q, R> ClientCall<Q, R> interceptCall(MethodDescriptor<Q, R> method, CallOptions options, Channel next) {
+			return new ForwardingClientCall.SimpleForwardingClientCall<>(next.newCall(method, options)) {
+				@Override
+				public void start(Listener<R> listener, Metadata headers) {
+					started.add(next.authority());
+					super.start(listener, headers);
+				}
+
+				@Override
+				public void request(int numMessages) {
+					requested.addAndGet(numMessages);
+					super.request(numMessages);
+				}
+
+				@Override
+				public void cancel(String message, Throwable cause) {
+					cancelled.add(next.authority());
+					super.cancel(message, cause);
+				}
+			};
+		}
+	};
+
+	@AfterEach
+	void close() throws Exception {
+		for (AutoCloseable resource : resources) {
+			resource.close();
+		}
+	}
+
+	private FakeLlmServer server(FakeLlmServer.Profile profile) throws Exception {
+		FakeLlmServer server = FakeLlmServer.start(0, profile);
+		resources.add(server);
+		return server;
+	}
+
+	private static String target(FakeLlmServer server) {
+		return "localhost:" + server.port();
+	}
+
+	// backends in the order of the servers; never ejected, so they are picked on in-flight streams alone
+	private LlmBackendPool pool(List<FakeLlmServer> servers) {
+		LlmBackendPool pool = new LlmBackendPool(servers.stream().map(GrpcClientServiceTests::target).toList(),
+				Integer.MAX_VALUE, 30_000, recordCalls);
+		resources.add(pool::shutdown);
+		return pool;
+	}
+
+	private GrpcClientService client(List<FakeLlmServer> servers) {
+		return new GrpcClientService(pool(servers), new SimpleMeterRegistry(), REQUEST_WINDOW, false, 1500, 10, 10,
+				10_000, 15_000, 120_000);
+	}
+
+	private static GrpcClientService hedgingClient(LlmBackendPool pool, long hedgeDelayMs, double budgetPercent,
+												   int budgetBurst) {
+		return new GrpcClientService(pool, new SimpleMeterRegistry(), REQUEST_WINDOW, true, hedgeDelayMs,
+				budgetPercent, budgetBurst, 10_000, 15_000, 120_000);
+	}
+
+	// connect every channel up front, so setting up a connection does not count against the first token
+	private static void connect(LlmBackendPool pool) throws InterruptedException {
+		for (LlmBackendPool.Backend backend : pool.backends()) {
+			for (int i = 0; i < 500 && backend.channel().getState(true) != ConnectivityState.READY; i++) {
+				Thread.sleep(10);
+			}
+		}
+	}
+
+	// TTFT 10 s and idle 15 s, with the given total deadline
+	private GrpcClientService timeoutClient(FakeLlmServer server, long totalTimeoutMs) {
+		return new GrpcClientService(pool(List.of(server)), new SimpleMeterRegistry(), REQUEST_WINDOW, false, 1500, 10,
+				10, 10_000, 15_000, totalTimeoutMs);
+	}
+
+	private static void timedOut(Throwable e, String reason) {
+		assertThat(e).isInstanceOf(TimeoutException.class).hasMessage(reason);
+	}
+
+	private static Flux<String> ask(GrpcClientService client) {
+		return client.streamResponse("c", "u", "q", List.of(), GenerationParams.DEFAULT);
+	}
+
+	@Test
+	void slowSubscriberNeverHasMoreThanOneWindowRequested() throws Exception {
+		FakeLlmServer server = server(new FakeLlmServer.Profile(Duration.ZERO, 10_000, 200, 0, 1));
+		GrpcClientService client = client(List.of(server));
+
+		StepVerifier.Step<String> step = StepVerifier.create(ask(client), 0);
+		for (int i = 1; i <= 50; i++) {
+			long received = i;
+			step = step.thenRequest(1)
+					.expectNextCount(1)
+					// the server is far faster than this reader, so anything requested would pile up here
+					.thenAwait(Duration.ofMillis(5))
+					.then(() -> assertThat(requested.get() - received).isBetween(0L, (long) REQUEST_WINDOW));
+		}
+		step.thenCancel().verify(Duration.ofSeconds(10));
+
+		assertThat(requested.get()).isLessThanOrEqualTo(50 + REQUEST_WINDOW);
+	}
+
+	@Test
+	void hedgeIsSentOnlyAfterTheDelayAndTheSlowerCallIsCancelled() throws Exception {
+		FakeLlmServer.Profile slowStart = new FakeLlmServer.Profile(Duration.ofMillis(1500), 100, 3, 0, 1);
+		FakeLlmServer a = server(slowStart);
+		FakeLlmServer b = server(slowStart);
+		LlmBackendPool pool = pool(List.of(a, b));
+		connect(pool);
+		// one stream already on b, so power of two choices puts the primary on a
+		pool.backends().get(1).streamStarted();
+		GrpcClientService client = hedgingClient(pool, 500, 100, 10);
+
+		StepVerifier answer = StepVerifier.create(ask(client))
+				.expectNext("The", " gateway", " streams")
+				.expectComplete()
+				.verifyLater();
+		Thread.sleep(100);
+		assertThat(started).containsExactly(target(a));
+		assertThat(client.hedgesSent()).isZero();
+		Thread.sleep(800);
+		assertThat(started).containsExactly(target(a), target(b));
+		assertThat(client.hedgesSent()).isEqualTo(1);
+
+		// the primary started first, so its first token wins and the hedge is cancelled
+		answer.verify(Duration.ofSeconds(5));
+		assertThat(cancelled).containsExactly(target(b));
+	}
+
+	@Test
+	void noHedgeIsSentWhenTheFirstTokenBeatsTheDelay() throws Exception {
+		// the answer takes longer than the hedge delay, but its first token does not
+		FakeLlmServer.Profile fast = new FakeLlmServer.Profile(Duration.ZERO, 10, 5, 0, 1);
+		GrpcClientService client = hedgingClient(pool(List.of(server(fast), server(fast))), 200, 100, 10);
+
+		StepVerifier.create(ask(client))
+				.expectNextCount(5)
+				.verifyComplete();
+		assertThat(started).hasSize(1);
+		assertThat(cancelled).isEmpty();
+		assertThat(client.hedgesSent()).isZero();
+	}
+
+	@Test
+	void hedgesStopOnceTheBudgetIsSpent() throws Exception {
+		FakeLlmServer.Profile slowStart = new FakeLlmServer.Profile(Duration.ofMillis(500), 100, 1, 0, 1);
+		FakeLlmServer a = server(slowStart);
+		FakeLlmServer b = server(slowStart);
+		LlmBackendPool pool = pool(List.of(a, b));
+		pool.backends().get(1).streamStarted();
+		// a burst of one hedge and no refill from primary calls
+		GrpcClientService client = hedgingClient(pool, 100, 0, 1);
+
+		StepVerifier.create(ask(client)).expectNext("The").verifyComplete();
+		StepVerifier.create(ask(client)).expectNext("The").verifyComplete();
+
+		assertThat(client.hedgesSent()).isEqualTo(1);
+		assertThat(client.hedgesDenied()).isEqualTo(1);
+		assertThat(started).containsExactly(target(a), target(b), target(a));
+	}
+
+	@Test
+	void primaryFailingBeforeTheDelayIsHedgedAtOnce() throws Exception {
+		FakeLlmServer failing = server(new FakeLlmServer.Profile(Duration.ZERO, 100, 0, 1, 1));
+		FakeLlmServer healthy = server(new FakeLlmServer.Profile(Duration.ZERO, 100, 3, 0, 1));
+		LlmBackendPool pool = pool(List.of(failing, healthy));
+		pool.backends().get(1).streamStarted();
+		GrpcClientService client = hedgingClient(pool, 5_000, 100, 10);
+
+		// well within the hedge delay, the healthy backend answers in place of the failed one
+		StepVerifier.create(ask(client))
+				.expectNext("The", " gateway", " streams")
+				.expectComplete()
+				.verify(Duration.ofSeconds(2));
+		assertThat(started).containsExactly(target(failing), target(healthy));
+		assertThat(client.hedgesSent()).isEqualTo(1);
+	}
+
+	@Test
+	void primaryFailureSurfacesAtOnceWhenNoHedgeMayBeSent() throws Exception {
+		FakeLlmServer failing = server(new FakeLlmServer.Profile(Duration.ZERO, 100, 0, 1, 1));
+		FakeLlmServer healthy = server(new FakeLlmServer.Profile(Duration.ZERO, 100, 3, 0, 1));
+		LlmBackendPool pool = pool(List.of(failing, healthy));
+		pool.backends().get(1).streamStarted();
+		GrpcClientService client = hedgingClient(pool, 5_000, 0, 0);
+
+		StepVerifier.create(ask(client))
+				.expectErrorSatisfies(e -> assertThat(Status.fromThrowable(e).getCode()).isEqualTo(Status.Code.UNAVAILABLE))
+				.verify(Duration.ofSeconds(2));
+		assertThat(started).containsExactly(target(failing));
+		assertThat(client.hedgesDenied()).isEqualTo(1);
+	}
+
+	@Test
+	void anEmptyAnswerCompletesWithoutAHedge() throws Exception {
+		FakeLlmServer empty = server(new FakeLlmServer.Profile(Duration.ZERO, 100, 0, 0, 1));
+		FakeLlmServer healthy = server(new FakeLlmServer.Profile(Duration.ZERO, 100, 3, 0, 1));
+		LlmBackendPool pool = pool(List.of(empty, healthy));
+		pool.backends().get(1).streamStarted();
+		GrpcClientService client = hedgingClient(pool, 5_000, 100, 10);
+
+		// zero tokens is an answer, not a failure
+		StepVerifier.create(ask(client))
+				.expectComplete()
+				.verify(Duration.ofSeconds(2));
+		assertThat(started).containsExactly(target(empty));
+		assertThat(client.hedgesSent()).isZero();
+	}
+
+	@Test
+	void noFirstTokenWithinTheTtftTimeoutFailsTheStream() throws Exception {
+		FakeLlmServer silent = server(new FakeLlmServer.Profile(Duration.ofMinutes(10), 100, 3, 0, 1));
+		GrpcClientService client = timeoutClient(silent, 3_600_000);
+
+		StepVerifier.withVirtualTime(() -> ask(client))
+				.expectSubscription()
+				.expectNoEvent(Duration.ofMillis(9_999))
+				.thenAwait(Duration.ofMillis(1))
+				.expectErrorSatisfies(e -> timedOut(e, "ttft_timeout"))
+				.verify(Duration.ofSeconds(5));
+		assertThat(cancelled).containsExactly(target(silent));
+	}
+
+	@Test
+	void aStallAfterTheFirstTokenFailsTheStreamWithIdleTimeout() throws Exception {
+		// the first token comes at once, the next one after 1000 seconds
+		FakeLlmServer stalling = server(new FakeLlmServer.Profile(Duration.ZERO, 0.001, 3, 0, 1));
+		GrpcClientService client = timeoutClient(stalling, 3_600_000);
+
+		StepVerifier.withVirtualTime(() -> ask(client))
+				.expectNext("The")
+				.expectNoEvent(Duration.ofMillis(14_999))
+				.thenAwait(Duration.ofMillis(1))
+				.expectErrorSatisfies(e -> timedOut(e, "idle_timeout"))
+				.verify(Duration.ofSeconds(5));
+	}
+
+	@Test
+	void aStreamRunningPastTheTotalDeadlineFailsWithDeadlineExceeded() throws Exception {
+		// the gRPC deadline runs on the wall clock, so this one takes real time
+		FakeLlmServer steady = server(new FakeLlmServer.Profile(Duration.ZERO, 20, 1000, 0, 1));
+		GrpcClientService client = timeoutClient(steady, 300);
+
+		StepVerifier.create(ask(client))
+				.thenConsumeWhile(token -> true)
+				.expectErrorSatisfies(e -> timedOut(e, "deadline_exceeded"))
+				.verify(Duration.ofSeconds(5));
+	}
+
+	@Test
+	void ttftTimeoutStartsOnceTheLimiterAdmitsTheCall() throws Exception {
+		FakeLlmServer silent = server(new FakeLlmServer.Profile(Duration.ofMinutes(10), 100, 3, 0, 1));
+		GrpcClientService client = timeoutClient(silent, 3_600_000);
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 0.5, 1e12, 10, 600_000, 10,
+				new UserTierResolver(new TierProperties("free", Map.of(), Map.of(), Map.of())));
+		Disposable held = limiter.limit("other", Flux.never()).subscribe();
+
+		StepVerifier.withVirtualTime(() -> limiter.limit("u", ask(client)))
+				.expectSubscription()
+				// queued for longer than the TTFT timeout, which has not started yet
+				.expectNoEvent(Duration.ofSeconds(30))
+				.then(held::dispose)
+				.expectNoEvent(Duration.ofMillis(9_999))
+				.thenAwait(Duration.ofMillis(1))
+				.expectErrorSatisfies(e -> timedOut(e, "ttft_timeout"))
+				.verify(Duration.ofSeconds(5));
+		assertThat(started).hasSize(1);
+	}
+}
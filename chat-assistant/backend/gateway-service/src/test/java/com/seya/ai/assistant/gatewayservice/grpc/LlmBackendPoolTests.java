@@ -0,0 +1,145 @@
+package com.seya.ai.assistant.gatewayservice.grpc;
+
+import io.grpc.Status;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LlmBackendPoolTests {
+
+	// channels connect lazily, so nothing needs to listen on these
+	private static final List<String> TARGETS = List.of("localhost:1", "localhost:2", "localhost:3");
+
+	private final List<LlmBackendPool> pools = new ArrayList<>();
+
+	@AfterEach
+	void shutdown() {
+		pools.forEach(LlmBackendPool::shutdown);
+	}
+
+	private LlmBackendPool pool(List<String> targets, int ejectAfterFailures, long ejectDurationMs) {
+		LlmBackendPool pool = new LlmBackendPool(targets, ejectAfterFailures, ejectDurationMs);
+		pools.add(pool);
+		return pool;
+	}
+
+	private static void start(LlmBackendPool.Backend backend, int streams) {
+		for (int i = 0; i < streams; i++) {
+			backend.streamStarted();
+		}
+	}
+
+	private static Set<LlmBackendPool.Backend> picks(LlmBackendPool pool, int times) {
+		Set<LlmBackendPool.Backend> picked = new HashSet<>();
+		for (int i = 0; i < times; i++) {
+			picked.add(pool.pick());
+		}
+		return picked;
+	}
+
+	@Test
+	void theBusierOfTwoRandomBackendsIsNeverPicked() {
+		LlmBackendPool pool = pool(TARGETS, 3, 30_000);
+		List<LlmBackendPool.Backend> backends = pool.backends();
+		start(backends.get(0), 5);
+		start(backends.get(1), 1);
+
+		// the busiest backend loses every pair it is in, the others win some
+		assertThat(picks(pool, 1000)).containsExactlyInAnyOrder(backends.get(1), backends.get(2));
+
+		backends.get(2).streamStarted();
+		backends.get(2).streamStarted();
+		backends.get(1).streamEnded();
+		assertThat(picks(pool, 1000)).containsExactlyInAnyOrder(backends.get(1), backends.get(2));
+	}
+
+	@Test
+	void backendFailingInARowIsEjectedUntilTheEjectionRunsOut() throws InterruptedException {
+		LlmBackendPool pool = pool(TARGETS.subList(0, 2), 2, 300);
+		LlmBackendPool.Backend flaky = pool.backends().get(0);
+		LlmBackendPool.Backend other = pool.backends().get(1);
+		// would win every pick on in-flight streams alone
+		start(other, 10);
+
+		// a success in between resets the count, and cancellations are not the backend's fault
+		flaky.onFailure(Status.UNAVAILABLE.asRuntimeException());
+		flaky.onSuccess();
+		flaky.onFailure(Status.CANCELLED.asRuntimeException());
+		flaky.onFailure(Status.UNAVAILABLE.asRuntimeException());
+		assertThat(picks(pool, 100)).containsExactly(flaky);
+
+		flaky.onFailure(Status.INTERNAL.asRuntimeException());
+		assertThat(picks(pool, 100)).containsExactly(other);
+		assertThat(pool.snapshot()).extracting(LlmBackendPool.BackendStats::healthy).containsExactly(false, true);
+
+		Thread.sleep(400);
+		assertThat(picks(pool, 100)).containsExactly(flaky);
+		assertThat(pool.snapshot()).extracting(LlmBackendPool.BackendStats::healthy).containsExactly(true, true);
+	}
+
+	@Test
+	void everyBackendIsFairGameWhenNoneIsHealthy() {
+		LlmBackendPool pool = pool(TARGETS.subList(0, 2), 1, 30_000);
+		LlmBackendPool.Backend a = pool.backends().get(0);
+		LlmBackendPool.Backend b = pool.backends().get(1);
+		a.onFailure(Status.UNAVAILABLE.asRuntimeException());
+		b.onFailure(Status.UNAVAILABLE.asRuntimeException());
+
+		assertThat(picks(pool, 100)).containsExactlyInAnyOrder(a, b);
+		assertThat(pool.pick(a)).isSameAs(b);
+	}
+
+	@Test
+	void reResolvingSwapsAddressesInAndOutOfThePool() {
+		AtomicReference<Map<String, List<String>>> dns = new AtomicReference<>(
+				Map.of("llm:50051", List.of("10.0.0.1:50051", "10.0.0.2:50051")));
+		LlmBackendPool pool = new LlmBackendPool(List.of("llm:50051"), target -> dns.get().getOrDefault(target, List.of()),
+				Duration.ZERO, 3, 30_000);
+		pools.add(pool);
+		List<String> added = new ArrayList<>();
+		List<String> removed = new ArrayList<>();
+		pool.addListener(new LlmBackendPool.Listener() {
+			@Override
+			public void added(LlmBackendPool.Backend backend) {
+				added.add(backend.target());
+			}
+
+			@Override
+			public void removed(LlmBackendPool.Backend backend) {
+				removed.add(backend.target());
+			}
+		});
+		assertThat(added).containsExactly("10.0.0.1:50051", "10.0.0.2:50051");
+		LlmBackendPool.Backend kept = pool.backends().get(0);
+		LlmBackendPool.Backend dropped = pool.backends().get(1);
+		kept.streamStarted();
+
+		dns.set(Map.of("llm:50051", List.of("10.0.0.1:50051", "10.0.0.3:50051")));
+		pool.refresh();
+
+		assertThat(pool.backends()).extracting(LlmBackendPool.Backend::target)
+				.containsExactly("10.0.0.1:50051", "10.0.0.3:50051");
+		// a backend that stays keeps its channel and its streams
+		assertThat(pool.backends().get(0)).isSameAs(kept);
+		assertThat(kept.inFlight()).isEqualTo(1);
+		assertThat(dropped.channel().isShutdown()).isTrue();
+		assertThat(added).containsExactly("10.0.0.1:50051", "10.0.0.2:50051", "10.0.0.3:50051");
+		assertThat(removed).containsExactly("10.0.0.2:50051");
+
+		// a failed lookup leaves the pool alone rather than emptying it
+		dns.set(Map.of());
+		pool.refresh();
+		assertThat(pool.backends()).extracting(LlmBackendPool.Backend::target)
+				.containsExactly("10.0.0.1:50051", "10.0.0.3:50051");
+		assertThat(removed).containsExactly("10.0.0.2:50051");
+	}
+}
@@ -0,0 +1,142 @@
+package com.seya.ai.assistant.gatewayservice.infra;
+
+import com.seya.ai.assistant.gatewayservice.config.TierProperties;
+import io.grpc.Status;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveConcurrencyLimiterTests {
+
+	private static final UserTierResolver TIERS = new UserTierResolver(new TierProperties("free", Map.of(), Map.of(), Map.of()));
+
+	// TTFT samples depend on wall-clock jitter, so tolerate any TTFT and let only errors and successes move the limit
+	private static AdaptiveConcurrencyLimiter limiter(int initialLimit, int maxQueue) {
+		return new AdaptiveConcurrencyLimiter(initialLimit, 1, 100, 0.5, 1e12, maxQueue, 2000, 10, TIERS);
+	}
+
+	private static void complete(AdaptiveConcurrencyLimiter limiter) {
+		limiter.limit("u", Flux.just("token")).blockLast();
+	}
+
+	@Test
+	void limitGrowsWithHealthyStreamsOnlyWhileItIsUsed() {
+		AdaptiveConcurrencyLimiter limiter = limiter(4, 10);
+		for (int i = 0; i < 10; i++) {
+			complete(limiter);
+		}
+		// one stream at a time never uses half of the limit
+		assertThat(limiter.currentLimit()).isEqualTo(4);
+
+		// with two streams held, every completing one makes three in flight, at least half of a limit up to six
+		Disposable first = limiter.limit("other", Flux.never()).subscribe();
+		Disposable second = limiter.limit("other", Flux.never()).subscribe();
+		for (int i = 0; i < 10; i++) {
+			complete(limiter);
+		}
+		assertThat(limiter.currentLimit()).isGreaterThan(4);
+		first.dispose();
+		second.dispose();
+	}
+
+	@Test
+	void limitIsCutByOverloadErrorsOnly() {
+		AdaptiveConcurrencyLimiter limiter = limiter(8, 10);
+		StepVerifier.create(limiter.limit("u", Flux.error(Status.INVALID_ARGUMENT.asRuntimeException())))
+				.verifyError();
+		assertThat(limiter.currentLimit()).isEqualTo(8);
+
+		StepVerifier.create(limiter.limit("u", Flux.error(Status.UNAVAILABLE.asRuntimeException())))
+				.verifyError();
+		assertThat(limiter.currentLimit()).isEqualTo(4);
+
+		for (int i = 0; i < 5; i++) {
+			limiter.limit("u", Flux.error(Status.RESOURCE_EXHAUSTED.asRuntimeException()))
+					.onErrorResume(e -> Flux.empty())
+					.blockLast();
+		}
+		assertThat(limiter.currentLimit()).isEqualTo(1);
+	}
+
+	@Test
+	void waitingRequestGetsTheNextFreeSlot() {
+		AdaptiveConcurrencyLimiter limiter = limiter(1, 10);
+		Sinks.Empty<Void> first = Sinks.empty();
+		Disposable holder = limiter.limit("a", first.asMono().thenMany(Flux.<String>empty())).subscribe();
+
+		StepVerifier.create(limiter.limit("b", Flux.just("token")))
+				.then(() -> {
+					assertThat(limiter.queued()).isEqualTo(1);
+					first.tryEmitEmpty();
+				})
+				.expectNext("token")
+				.verifyComplete();
+
+		assertThat(limiter.inFlight()).isZero();
+		assertThat(limiter.admittedFromQueue()).isEqualTo(1);
+		holder.dispose();
+	}
+
+	@Test
+	void requestsAreShedWhenTheQueueIsFull() {
+		AdaptiveConcurrencyLimiter limiter = limiter(1, 1);
+		Disposable holder = limiter.limit("a", Flux.never()).subscribe();
+		Disposable waiting = limiter.limit("b", Flux.never()).subscribe();
+
+		StepVerifier.create(limiter.limit("c", Flux.never()))
+				.verifyErrorMatches(e -> e instanceof StreamRejectedException r && r.code().equals("overloaded"));
+		assertThat(limiter.shed()).isEqualTo(1);
+
+		waiting.dispose();
+		holder.dispose();
+		assertThat(limiter.inFlight()).isZero();
+		assertThat(limiter.queued()).isZero();
+	}
+
+	@Test
+	void requestsAreShedWhenTheWaitRunsOut() {
+		AdaptiveConcurrencyLimiter limiter = limiter(1, 10);
+		Disposable holder = limiter.limit("a", Flux.never()).subscribe();
+
+		StepVerifier.withVirtualTime(() -> limiter.limit("b", Flux.never()))
+				.expectSubscription()
+				.expectNoEvent(Duration.ofMillis(1999))
+				.thenAwait(Duration.ofMillis(1))
+				.verifyErrorMatches(e -> e instanceof StreamRejectedException);
+
+		assertThat(limiter.queued()).isZero();
+		assertThat(limiter.shed()).isEqualTo(1);
+		holder.dispose();
+	}
+
+	@Test
+	void permitIsReleasedOnCancelAndOnError() {
+		AdaptiveConcurrencyLimiter limiter = limiter(2, 10);
+
+		Disposable cancelled = limiter.limit("u", Flux.never()).subscribe();
+		assertThat(limiter.inFlight()).isEqualTo(1);
+		cancelled.dispose();
+		assertThat(limiter.inFlight()).isZero();
+
+		limiter.limit("u", Flux.error(new IllegalStateException())).onErrorResume(e -> Flux.empty()).blockLast();
+		assertThat(limiter.inFlight()).isZero();
+
+		// a request cancelled while it waits gives up its place, and no slot leaks
+		Disposable a = limiter.limit("a", Flux.never()).subscribe();
+		Disposable b = limiter.limit("b", Flux.never()).subscribe();
+		Disposable queued = limiter.limit("c", Flux.never()).subscribe();
+		assertThat(limiter.queued()).isEqualTo(1);
+		queued.dispose();
+		a.dispose();
+		b.dispose();
+		assertThat(limiter.queued()).isZero();
+		assertThat(limiter.inFlight()).isZero();
+	}
+}
@@ -0,0 +1,145 @@
+package com.seya.ai.assistant.gatewayservice.infra;
+
+import com.seya.ai.assistant.gatewayservice.config.TierProperties;
+import com.seya.ai.assistant.gatewayservice.infra.CircuitBreaker.State;
+import com.seya.ai.assistant.gatewayservice.infra.CircuitBreaker.StateChanged;
+import io.grpc.Status;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTests {
+
+	private final List<Object> events = new CopyOnWriteArrayList<>();
+
+	private CircuitBreaker breaker(int windowSize, int minCalls, double failureRatePercent, long slowCallMs,
+								   long openDurationMs, int halfOpenCalls) {
+		return new CircuitBreaker(events::add, windowSize, minCalls, failureRatePercent, 100, slowCallMs,
+				openDurationMs, halfOpenCalls);
+	}
+
+	private static void succeed(CircuitBreaker breaker) {
+		breaker.protect(Flux.just("token")).blockLast();
+	}
+
+	private static void fail(CircuitBreaker breaker) {
+		breaker.protect(Flux.error(Status.UNAVAILABLE.asRuntimeException()))
+				.onErrorResume(e -> Flux.empty())
+				.blockLast();
+	}
+
+	@Test
+	void opensWhenTheFailuresInTheRingReachTheRate() {
+		CircuitBreaker breaker = breaker(4, 4, 50, 60_000, 60_000, 1);
+		fail(breaker);
+		succeed(breaker);
+		// half of the calls failed, but fewer than min-calls are recorded
+		assertThat(breaker.state()).isEqualTo(State.CLOSED);
+		succeed(breaker);
+		succeed(breaker);
+		// the next failure pushes the first one out of the ring, so still one in four
+		fail(breaker);
+		assertThat(breaker.state()).isEqualTo(State.CLOSED);
+		fail(breaker);
+		assertThat(breaker.state()).isEqualTo(State.OPEN);
+
+		StepVerifier.create(breaker.protect(Flux.just("token")))
+				.expectErrorSatisfies(e -> assertThat(e).isInstanceOf(StreamRejectedException.class)
+						.hasMessage("unavailable"))
+				.verify();
+		assertThat(breaker.rejected()).isEqualTo(1);
+		assertThat(events).containsExactly(new StateChanged(State.CLOSED, State.OPEN));
+	}
+
+	@Test
+	void theFirstEventOfAStreamDecidesItsOutcome() {
+		CircuitBreaker breaker = breaker(2, 1, 50, 60_000, 60_000, 1);
+		// a token came, so the error after it does not count against the LLM tier
+		breaker.protect(Flux.just("token").concatWith(Flux.error(Status.UNAVAILABLE.asRuntimeException())))
+				.onErrorResume(e -> Flux.empty())
+				.blockLast();
+		// neither does a bad request or our own shedding
+		breaker.protect(Flux.error(Status.INVALID_ARGUMENT.asRuntimeException()))
+				.onErrorResume(e -> Flux.empty())
+				.blockLast();
+		breaker.protect(Flux.error(new StreamRejectedException("overloaded")))
+				.onErrorResume(e -> Flux.empty())
+				.blockLast();
+		assertThat(breaker.state()).isEqualTo(State.CLOSED);
+
+		fail(breaker);
+		assertThat(breaker.state()).isEqualTo(State.OPEN);
+	}
+
+	@Test
+	void halfOpenLetsOnlyTheTrialCallsThroughAndClosesWhenTheySucceed() {
+		CircuitBreaker breaker = breaker(2, 1, 50, 60_000, 0, 2);
+		fail(breaker);
+		assertThat(breaker.state()).isEqualTo(State.OPEN);
+
+		// the open duration is over, so the next calls are trials
+		Disposable first = breaker.protect(Flux.never()).subscribe();
+		Disposable second = breaker.protect(Flux.never()).subscribe();
+		assertThat(breaker.state()).isEqualTo(State.HALF_OPEN);
+		StepVerifier.create(breaker.protect(Flux.just("token")))
+				.expectError(StreamRejectedException.class)
+				.verify();
+
+		// trials cancelled before any outcome give their slots back
+		first.dispose();
+		second.dispose();
+		succeed(breaker);
+		assertThat(breaker.state()).isEqualTo(State.HALF_OPEN);
+		succeed(breaker);
+		assertThat(breaker.state()).isEqualTo(State.CLOSED);
+
+		assertThat(events).containsExactly(
+				new StateChanged(State.CLOSED, State.OPEN),
+				new StateChanged(State.OPEN, State.HALF_OPEN),
+				new StateChanged(State.HALF_OPEN, State.CLOSED));
+	}
+
+	@Test
+	void aFailedTrialOpensTheBreakerAgain() {
+		CircuitBreaker breaker = breaker(2, 1, 50, 60_000, 0, 2);
+		fail(breaker);
+		fail(breaker);
+		assertThat(breaker.state()).isEqualTo(State.OPEN);
+		assertThat(events).containsExactly(
+				new StateChanged(State.CLOSED, State.OPEN),
+				new StateChanged(State.OPEN, State.HALF_OPEN),
+				new StateChanged(State.HALF_OPEN, State.OPEN));
+	}
+
+	@Test
+	void slowCallsAreTimedFromAdmissionNotFromTheQueue() throws InterruptedException {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 0.5, 1e12, 10, 5000, 10,
+				new UserTierResolver(new TierProperties("free", Map.of(), Map.of(), Map.of())));
+		// a window of one call, so whichever call is recorded last decides the state
+		CircuitBreaker breaker = breaker(1, 1, 100, 50, 60_000, 1);
+
+		Disposable held = breaker.protect(Flux.never(), calls -> limiter.limit("a", calls)).subscribe();
+		StepVerifier queued = StepVerifier.create(breaker.protect(Flux.just("token"), calls -> limiter.limit("b", calls)))
+				.expectNext("token")
+				.expectComplete()
+				.verifyLater();
+		// waits for the slot far longer than the slow-call threshold, then answers at once
+		Thread.sleep(200);
+		held.dispose();
+		queued.verify(Duration.ofSeconds(5));
+		assertThat(breaker.state()).isEqualTo(State.CLOSED);
+
+		// a first token that is slow once admitted does count
+		breaker.protect(Flux.just("token").delayElements(Duration.ofMillis(200)), calls -> limiter.limit("c", calls))
+				.blockLast();
+		assertThat(breaker.state()).isEqualTo(State.OPEN);
+	}
+}
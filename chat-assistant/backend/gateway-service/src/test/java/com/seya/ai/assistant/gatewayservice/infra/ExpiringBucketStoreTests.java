@@ -0,0 +1,117 @@
+package com.seya.ai.assistant.gatewayservice.infra;
+
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.Refill;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExpiringBucketStoreTests {
+
+	private static Bucket bucket() {
+		return Bucket.builder().addLimit(Bandwidth.classic(10, Refill.greedy(10, Duration.ofSeconds(10)))).build();
+	}
+
+	@Test
+	void sizeStaysCappedWhenManyThreadsAddKeys() throws InterruptedException {
+		try (ExpiringBucketStore store = new ExpiringBucketStore(ExpiringBucketStoreTests::bucket, 1000,
+				Duration.ofSeconds(10), Duration.ZERO)) {
+			List<Thread> threads = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				int thread = t;
+				Thread writer = new Thread(() -> {
+					for (int i = 0; i < 20_000; i++) {
+						store.get("user-" + thread + "-" + i).tryConsume(1);
+					}
+				});
+				writer.start();
+				threads.add(writer);
+			}
+			for (Thread writer : threads) {
+				writer.join();
+			}
+			assertThat(store.size()).isLessThanOrEqualTo(1000);
+		}
+	}
+
+	@Test
+	void evictionReachesKeysAllOverTheMap() {
+		try (ExpiringBucketStore store = new ExpiringBucketStore(ExpiringBucketStoreTests::bucket, 1000,
+				Duration.ofSeconds(10), Duration.ZERO)) {
+			for (int i = 0; i < 1000; i++) {
+				store.get("old-" + i);
+			}
+			for (int i = 0; i < 1000; i++) {
+				store.get("new-" + i);
+			}
+			// with the sample always taken at the start of the map, old keys further in would never go
+			int oldLeft = 0;
+			for (int i = 0; i < 1000; i++) {
+				if (store.contains("old-" + i)) {
+					oldLeft++;
+				}
+			}
+			assertThat(oldLeft).isLessThan(200);
+			assertThat(store.size()).isEqualTo(1000);
+		}
+	}
+
+	@Test
+	void idleBucketsAreSwept() throws InterruptedException {
+		try (ExpiringBucketStore store = new ExpiringBucketStore(ExpiringBucketStoreTests::bucket, 100,
+				Duration.ofMillis(50), Duration.ZERO)) {
+			store.get("idle");
+			Thread.sleep(100);
+			store.get("active");
+
+			assertThat(store.evictIdle()).isEqualTo(1);
+			assertThat(store.size()).isEqualTo(1);
+		}
+	}
+
+	@Test
+	void bucketIsKeptWhileInUse() {
+		try (ExpiringBucketStore store = new ExpiringBucketStore(ExpiringBucketStoreTests::bucket, 100,
+				Duration.ofSeconds(10), Duration.ZERO)) {
+			for (int i = 0; i < 10; i++) {
+				assertThat(store.get("user").tryConsume(1)).isTrue();
+			}
+			assertThat(store.get("user").tryConsume(1)).isFalse();
+		}
+	}
+
+	@Test
+	void bucketInDebtIsKeptUntilFullAgain() throws InterruptedException {
+		try (ExpiringBucketStore store = new ExpiringBucketStore(ExpiringBucketStoreTests::bucket, 100,
+				Duration.ofMillis(50), Duration.ZERO, bucket -> bucket.getAvailableTokens() >= 10)) {
+			store.get("debtor").consumeIgnoringRateLimits(1000);
+			store.get("idle");
+			Thread.sleep(100);
+
+			assertThat(store.evictIdle()).isEqualTo(1);
+			// still owes: the same bucket, not a fresh full one
+			assertThat(store.get("debtor").getAvailableTokens()).isNegative();
+		}
+	}
+
+	@Test
+	void bucketInDebtIsNotEvictedToMakeRoom() {
+		try (ExpiringBucketStore store = new ExpiringBucketStore(ExpiringBucketStoreTests::bucket, 2,
+				Duration.ofSeconds(10), Duration.ZERO, bucket -> bucket.getAvailableTokens() >= 10)) {
+			store.get("debtor").consumeIgnoringRateLimits(1000);
+			for (int i = 0; i < 10; i++) {
+				store.get("user-" + i).tryConsume(1);
+			}
+
+			// the least recently used and the least refilled, but it still owes
+			assertThat(store.contains("debtor")).isTrue();
+			assertThat(store.get("debtor").getAvailableTokens()).isNegative();
+			assertThat(store.size()).isEqualTo(2);
+		}
+	}
+}
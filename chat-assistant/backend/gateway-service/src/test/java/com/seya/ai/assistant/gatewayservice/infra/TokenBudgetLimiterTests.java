@@ -0,0 +1,40 @@
+package com.seya.ai.assistant.gatewayservice.infra;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenBudgetLimiterTests {
+
+	@Test
+	void generatedTokensAreChargedOneByOneUntilTheBudgetIsGone() {
+		TokenBudgetLimiter limiter = new TokenBudgetLimiter(true, 100, 60, 1000, 0);
+		try {
+			for (int i = 0; i < 99; i++) {
+				limiter.charge("u", 1);
+			}
+			assertThat(limiter.hasBudget("u")).isTrue();
+			limiter.charge("u", 1);
+			assertThat(limiter.hasBudget("u")).isFalse();
+			assertThat(limiter.hasBudget("other")).isTrue();
+			assertThat(limiter.rejected()).isEqualTo(1);
+		} finally {
+			limiter.shutdown();
+		}
+	}
+
+	@Test
+	void streamsAlreadyRunningMayTakeTheBalanceBelowZero() {
+		TokenBudgetLimiter limiter = new TokenBudgetLimiter(true, 100, 60, 1000, 0);
+		try {
+			// a request admitted with budget left keeps streaming, and pays for all of it
+			assertThat(limiter.hasBudget("u")).isTrue();
+			limiter.charge("u", 350);
+			assertThat(limiter.hasBudget("u")).isFalse();
+			limiter.charge("u", 0);
+			assertThat(limiter.hasBudget("u")).isFalse();
+		} finally {
+			limiter.shutdown();
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package com.seya.ai.assistant.gatewayservice.infra;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WeightedFairQueueTests {
+
+	@Test
+	void floodingUserDoesNotStarveOthers() {
+		WeightedFairQueue<String> queue = new WeightedFairQueue<>(100);
+		for (int i = 0; i < 50; i++) {
+			queue.offer("flooder", 1, "flooder-" + i);
+		}
+		queue.offer("polite", 1, "polite-0");
+
+		List<String> order = drain(queue, 3);
+		assertThat(order).contains("polite-0");
+	}
+
+	@Test
+	void heavierTierGetsProportionallyMoreSlots() {
+		WeightedFairQueue<String> queue = new WeightedFairQueue<>(100);
+		for (int i = 0; i < 40; i++) {
+			queue.offer("free", 1, "free");
+			queue.offer("premium", 4, "premium");
+		}
+
+		List<String> first = drain(queue, 25);
+		assertThat(first.stream().filter("premium"::equals).count()).isEqualTo(20);
+		assertThat(first.stream().filter("free"::equals).count()).isEqualTo(5);
+	}
+
+	@Test
+	void perUserQueueIsCapped() {
+		WeightedFairQueue<String> queue = new WeightedFairQueue<>(2);
+		assertThat(queue.offer("user", 1, "a")).isNotNull();
+		assertThat(queue.offer("user", 1, "b")).isNotNull();
+		assertThat(queue.offer("user", 1, "c")).isNull();
+		assertThat(queue.offer("other", 1, "d")).isNotNull();
+	}
+
+	private static List<String> drain(WeightedFairQueue<String> queue, int n) {
+		List<String> items = new ArrayList<>();
+		for (int i = 0; i < n && !queue.isEmpty(); i++) {
+			items.add(queue.poll().item);
+		}
+		return items;
+	}
+}
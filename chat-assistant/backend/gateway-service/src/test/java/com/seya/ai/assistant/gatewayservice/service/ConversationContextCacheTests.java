@@ -0,0 +1,148 @@
+package com.seya.ai.assistant.gatewayservice.service;
+
+import com.example.gateway.grpc.Turn;
+import com.seya.ai.assistant.gatewayservice.transcript.ChatTurn;
+import com.seya.ai.assistant.gatewayservice.transcript.ChatTurnRepository;
+import com.seya.ai.assistant.gatewayservice.transcript.TranscriptWriter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.domain.Limit;
+import reactor.core.publisher.Flux;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ConversationContextCacheTests {
+
+	// turns the transcript writer has not saved yet
+	private final TranscriptWriter transcripts = mock(TranscriptWriter.class);
+
+	@SuppressWarnings("unchecked")
+	private ConversationContextCache cache(ChatTurnRepository repository, long maxBytes, int maxTurns,
+										   int historyTokens) {
+		ObjectProvider<ChatTurnRepository> provider = mock(ObjectProvider.class);
+		when(provider.getIfAvailable()).thenReturn(repository);
+		return new ConversationContextCache(provider, transcripts, true, maxBytes, maxTurns, historyTokens, 4);
+	}
+
+	private static void answer(ConversationContextCache cache, String conversationId, String query, String... tokens) {
+		cache.record("u", conversationId, query, Flux.just(tokens)).blockLast();
+	}
+
+	private static List<String> queries(List<Turn> history) {
+		return history.stream().map(Turn::getQuery).toList();
+	}
+
+	@Test
+	void historyIsTheMostRecentTurnsWithinTheTokenBudget() {
+		ConversationContextCache cache = cache(null, 1 << 20, 20, 10);
+		assertThat(cache.history("u", "c").block()).isEmpty();
+
+		// each turn costs 3 answer tokens + 1 for its four-char query
+		answer(cache, "c", "q1..", "a", "b", "c");
+		answer(cache, "c", "q2..", "d", "e", "f");
+		answer(cache, "c", "q3..", "g", "h", "i");
+
+		List<Turn> history = cache.history("u", "c").block();
+		assertThat(queries(history)).containsExactly("q2..", "q3..");
+		assertThat(history.get(1).getAnswer()).isEqualTo("ghi");
+		assertThat(cache.history("u", null).block()).isEmpty();
+	}
+
+	@Test
+	void failedAnswersAndOtherConversationsAreNotMixedIn() {
+		ConversationContextCache cache = cache(null, 1 << 20, 20, 1000);
+		cache.history("u", "a").block();
+		cache.history("u", "b").block();
+		answer(cache, "a", "first", "x");
+		cache.record("u", "a", "broken", Flux.concat(Flux.just("y"), Flux.error(new IllegalStateException())))
+				.onErrorResume(e -> Flux.empty())
+				.blockLast();
+		answer(cache, "b", "other", "z");
+
+		assertThat(queries(cache.history("u", "a").block())).containsExactly("first");
+	}
+
+	@Test
+	void keepsAtMostMaxTurnsAndEvictsLeastRecentlyUsedConversations() {
+		ConversationContextCache cache = cache(null, 1000, 2, 1000);
+		cache.history("u", "old").block();
+		for (int i = 0; i < 3; i++) {
+			answer(cache, "old", "q" + i, "a".repeat(100));
+		}
+		assertThat(queries(cache.history("u", "old").block())).containsExactly("q1", "q2");
+
+		cache.history("u", "new").block();
+		answer(cache, "new", "q", "b".repeat(300));
+
+		assertThat(cache.sizeBytes()).isLessThanOrEqualTo(1000);
+		assertThat(cache.evictions()).isEqualTo(1);
+		// evicted: starts over (nothing stored without a datasource)
+		assertThat(cache.history("u", "old").block()).isEmpty();
+	}
+
+	@Test
+	void missingConversationIsLoadedFromTheTranscriptStoreOnce() {
+		ChatTurnRepository repository = mock(ChatTurnRepository.class);
+		when(repository.findByUserIdAndConversationIdAndOutcomeOrderByStartedAtDesc(eq("u"), eq("c"), eq("complete"), any(Limit.class)))
+				.thenReturn(List.of(
+						new ChatTurn("s", "c", "r2", "u", "second", "two", 1, "complete", null, Instant.now(), 1L, 1L),
+						new ChatTurn("s", "c", "r1", "u", "first", "one", 1, "complete", null, Instant.now(), 1L, 1L)));
+		ConversationContextCache cache = cache(repository, 1 << 20, 20, 1000);
+
+		assertThat(queries(cache.history("u", "c").block())).containsExactly("first", "second");
+		answer(cache, "c", "third", "three");
+		assertThat(queries(cache.history("u", "c").block())).containsExactly("first", "second", "third");
+
+		verify(repository, times(1)).findByUserIdAndConversationIdAndOutcomeOrderByStartedAtDesc(eq("u"), eq("c"), eq("complete"),
+				any(Limit.class));
+		assertThat(cache.misses()).isEqualTo(1);
+		assertThat(cache.hits()).isEqualTo(1);
+	}
+
+	@Test
+	void anotherUserSendingTheSameConversationIdSeesNoneOfItsHistory() {
+		ChatTurnRepository repository = mock(ChatTurnRepository.class);
+		when(repository.findByUserIdAndConversationIdAndOutcomeOrderByStartedAtDesc(eq("a"), eq("c"), eq("complete"),
+				any(Limit.class)))
+				.thenReturn(List.of(
+						new ChatTurn("s", "c", "r1", "a", "private", "answer", 1, "complete", null, Instant.now(), 1L, 1L)));
+		when(repository.findByUserIdAndConversationIdAndOutcomeOrderByStartedAtDesc(eq("b"), eq("c"), eq("complete"),
+				any(Limit.class)))
+				.thenReturn(List.of());
+		ConversationContextCache cache = cache(repository, 1 << 20, 20, 1000);
+
+		assertThat(queries(cache.history("a", "c").block())).containsExactly("private");
+		cache.record("a", "c", "also private", Flux.just("x")).blockLast();
+
+		assertThat(cache.history("b", "c").block()).isEmpty();
+		cache.record("b", "c", "mine", Flux.just("y")).blockLast();
+		assertThat(queries(cache.history("b", "c").block())).containsExactly("mine");
+		assertThat(queries(cache.history("a", "c").block())).containsExactly("private", "also private");
+	}
+
+	@Test
+	void turnsNotSavedYetAreLoadedWithTheStoredOnes() {
+		Instant now = Instant.now();
+		ChatTurn first = new ChatTurn("s", "c", "r1", "u", "first", "one", 1, "complete", null, now, 1L, 1L);
+		ChatTurn second = new ChatTurn("s", "c", "r2", "u", "second", "two", 1, "complete", null, now.plusSeconds(1), 1L, 1L);
+		ChatTurn failed = new ChatTurn("s", "c", "r3", "u", "failed", "", 0, "error", "x", now.plusSeconds(2), null, 1L);
+		ChatTurn third = new ChatTurn("s", "c", "r4", "u", "third", "three", 1, "complete", null, now.plusSeconds(3), 1L, 1L);
+		ChatTurnRepository repository = mock(ChatTurnRepository.class);
+		// the second turn was saved between the two reads, so it is in both
+		when(transcripts.unsaved("u", "c")).thenReturn(List.of(second, failed, third));
+		when(repository.findByUserIdAndConversationIdAndOutcomeOrderByStartedAtDesc(eq("u"), eq("c"), eq("complete"), any(Limit.class)))
+				.thenReturn(List.of(second, first));
+		ConversationContextCache cache = cache(repository, 1 << 20, 2, 1000);
+
+		assertThat(queries(cache.history("u", "c").block())).containsExactly("second", "third");
+	}
+}
@@ -0,0 +1,115 @@
+package com.seya.ai.assistant.gatewayservice.service;
+
+import io.grpc.Status;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResponseCacheTests {
+
+	// what ResponseCache charges for a one-character token
+	private static final long ONE_TOKEN = 58;
+
+	private static void store(ResponseCache cache, String key, String... tokens) {
+		cache.populate(key, Flux.just(tokens)).blockLast();
+	}
+
+	@Test
+	void queriesAreNormalizedBeforeLookup() {
+		assertThat(ResponseCache.normalize("  What IS\tthe\n time ")).isEqualTo("what is the time");
+		assertThat(ResponseCache.normalize(" \n")).isNull();
+	}
+
+	@Test
+	void completedAnswersAreStoredAndCountedAsHits() {
+		ResponseCache cache = new ResponseCache(true, 600, 1 << 20, 1 << 16, 0);
+		assertThat(cache.get("q")).isNull();
+		store(cache, "q", "a", "b");
+
+		assertThat(cache.get("q")).containsExactly("a", "b");
+		assertThat(cache.hits()).isEqualTo(1);
+		assertThat(cache.misses()).isEqualTo(1);
+	}
+
+	@Test
+	void failedAndOversizedAnswersAreNotStored() {
+		ResponseCache cache = new ResponseCache(true, 600, 1 << 20, ONE_TOKEN, 0);
+		cache.populate("failed", Flux.just("a").concatWith(Flux.error(Status.UNAVAILABLE.asRuntimeException())))
+				.onErrorResume(e -> Flux.empty())
+				.blockLast();
+		store(cache, "long", "a", "b");
+		store(cache, "short", "a");
+
+		assertThat(cache.get("failed")).isNull();
+		assertThat(cache.get("long")).isNull();
+		assertThat(cache.get("short")).containsExactly("a");
+	}
+
+	@Test
+	void entriesExpireAfterTheTtl() {
+		ResponseCache cache = new ResponseCache(true, 0, 1 << 20, 1 << 16, 0);
+		store(cache, "q", "a");
+
+		assertThat(cache.get("q")).isNull();
+		assertThat(cache.size()).isZero();
+		assertThat(cache.sizeBytes()).isZero();
+	}
+
+	@Test
+	void leastRecentlyUsedEntryIsEvictedOnceOverTheByteCap() {
+		ResponseCache cache = new ResponseCache(true, 600, 2 * ONE_TOKEN, 1 << 16, 0);
+		store(cache, "a", "a");
+		store(cache, "b", "b");
+		// reading a makes b the least recently used
+		assertThat(cache.get("a")).isNotNull();
+		store(cache, "c", "c");
+
+		assertThat(cache.get("b")).isNull();
+		assertThat(cache.get("a")).containsExactly("a");
+		assertThat(cache.get("c")).containsExactly("c");
+		assertThat(cache.evictions()).isEqualTo(1);
+		assertThat(cache.sizeBytes()).isEqualTo(2 * ONE_TOKEN);
+	}
+
+	@Test
+	void storingAKeyAgainReplacesItsBytes() {
+		ResponseCache cache = new ResponseCache(true, 600, 1 << 20, 1 << 16, 0);
+		store(cache, "q", "a", "b");
+		store(cache, "q", "c");
+
+		assertThat(cache.get("q")).containsExactly("c");
+		assertThat(cache.size()).isEqualTo(1);
+		assertThat(cache.sizeBytes()).isEqualTo(ONE_TOKEN);
+	}
+
+	@Test
+	void replayIsPacedWhenConfigured() {
+		ResponseCache cache = new ResponseCache(true, 600, 1 << 20, 1 << 16, 100);
+		StepVerifier.withVirtualTime(() -> cache.replay(List.of("a", "b")))
+				.expectSubscription()
+				.expectNoEvent(Duration.ofMillis(100))
+				.expectNext("a")
+				.expectNoEvent(Duration.ofMillis(100))
+				.expectNext("b")
+				.verifyComplete();
+
+		StepVerifier.create(new ResponseCache(true, 600, 1 << 20, 1 << 16, 0).replay(List.of("a", "b")))
+				.expectNext("a", "b")
+				.verifyComplete();
+	}
+
+	@Test
+	void disabledCacheNeitherStoresNorCounts() {
+		ResponseCache cache = new ResponseCache(false, 600, 1 << 20, 1 << 16, 0);
+		store(cache, "q", "a");
+
+		assertThat(cache.get("q")).isNull();
+		assertThat(cache.size()).isZero();
+		assertThat(cache.misses()).isZero();
+	}
+}
@@ -0,0 +1,139 @@
+package com.seya.ai.assistant.gatewayservice.service;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.subscriber.TestSubscriber;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SingleFlightTests {
+
+	// every upstream call made, in order
+	private final List<Sinks.Many<String>> calls = new ArrayList<>();
+	private final AtomicBoolean cancelled = new AtomicBoolean();
+
+	private Flux<String> upstream() {
+		Sinks.Many<String> call = Sinks.many().unicast().onBackpressureBuffer();
+		calls.add(call);
+		return call.asFlux().doOnCancel(() -> cancelled.set(true));
+	}
+
+	@Test
+	void identicalQueriesShareOneUpstreamCall() {
+		SingleFlight flights = new SingleFlight(true, 1024);
+		List<String> first = new CopyOnWriteArrayList<>();
+		List<String> second = new CopyOnWriteArrayList<>();
+		flights.join("q", this::upstream).subscribe(first::add);
+		flights.join("q", this::upstream).subscribe(second::add);
+
+		calls.get(0).tryEmitNext("a");
+		calls.get(0).tryEmitNext("b");
+		calls.get(0).tryEmitComplete();
+
+		assertThat(calls).hasSize(1);
+		assertThat(first).containsExactly("a", "b");
+		assertThat(second).containsExactly("a", "b");
+		assertThat(flights.started()).isEqualTo(1);
+		assertThat(flights.joined()).isEqualTo(1);
+	}
+
+	@Test
+	void lateJoinerGetsTheWholeAnswer() {
+		SingleFlight flights = new SingleFlight(true, 1024);
+		flights.join("q", this::upstream).subscribe();
+		calls.get(0).tryEmitNext("a");
+		calls.get(0).tryEmitNext("b");
+
+		List<String> late = new CopyOnWriteArrayList<>();
+		flights.join("q", this::upstream).subscribe(late::add);
+		calls.get(0).tryEmitNext("c");
+		calls.get(0).tryEmitComplete();
+
+		assertThat(calls).hasSize(1);
+		assertThat(late).containsExactly("a", "b", "c");
+	}
+
+	@Test
+	void flightIsForgottenOnceItEnds() {
+		SingleFlight flights = new SingleFlight(true, 1024);
+		flights.join("q", this::upstream).subscribe();
+		assertThat(flights.inFlight()).isEqualTo(1);
+		calls.get(0).tryEmitError(new IllegalStateException("unavailable"));
+		assertThat(flights.inFlight()).isZero();
+
+		flights.join("q", this::upstream).subscribe();
+		assertThat(calls).hasSize(2);
+		calls.get(1).tryEmitComplete();
+		assertThat(flights.inFlight()).isZero();
+	}
+
+	@Test
+	void upstreamIsCancelledWhenTheLastSubscriberLeaves() {
+		SingleFlight flights = new SingleFlight(true, 1024);
+		Disposable a = flights.join("q", this::upstream).subscribe();
+		Disposable b = flights.join("q", this::upstream).subscribe();
+
+		a.dispose();
+		assertThat(cancelled).isFalse();
+		b.dispose();
+
+		assertThat(cancelled).isTrue();
+		assertThat(flights.inFlight()).isZero();
+	}
+
+	@Test
+	void flightStopsTakingJoinersBeforeItsReplayBufferFillsUp() {
+		SingleFlight flights = new SingleFlight(true, 4);
+		AtomicInteger received = new AtomicInteger();
+		flights.join("q", this::upstream).subscribe(t -> received.incrementAndGet());
+		calls.get(0).tryEmitNext("a");
+		List<String> joiner = new CopyOnWriteArrayList<>();
+		flights.join("q", this::upstream).subscribe(joiner::add);
+		calls.get(0).tryEmitNext("b");
+
+		// two of four tokens buffered: newcomers get a flight of their own
+		flights.join("q", this::upstream).subscribe();
+		assertThat(calls).hasSize(2);
+
+		for (String token : List.of("c", "d", "e", "f")) {
+			calls.get(0).tryEmitNext(token);
+		}
+		calls.get(0).tryEmitComplete();
+		assertThat(joiner).containsExactly("a", "b", "c", "d", "e", "f");
+		assertThat(received).hasValue(6);
+	}
+
+	@Test
+	void upstreamIsReadNoFasterThanTheQuickestSubscriber() {
+		SingleFlight flights = new SingleFlight(true, 1024);
+		AtomicLong requested = new AtomicLong();
+		Supplier<Flux<String>> answer = () -> Flux.range(0, 100).map(String::valueOf).doOnRequest(requested::addAndGet);
+		TestSubscriber<String> slow = TestSubscriber.<String>builder().initialRequest(2).build();
+		TestSubscriber<String> quick = TestSubscriber.<String>builder().initialRequest(5).build();
+		flights.join("q", answer).subscribe(slow);
+		flights.join("q", answer).subscribe(quick);
+
+		assertThat(requested).hasValue(5);
+		assertThat(slow.getReceivedOnNext()).containsExactly("0", "1");
+		assertThat(quick.getReceivedOnNext()).containsExactly("0", "1", "2", "3", "4");
+
+		// the slow one overtakes: upstream follows whoever is ahead
+		slow.request(10);
+		assertThat(requested).hasValue(12);
+		assertThat(quick.getReceivedOnNext()).hasSize(5);
+
+		slow.cancel();
+		quick.cancel();
+		assertThat(flights.inFlight()).isZero();
+	}
+}
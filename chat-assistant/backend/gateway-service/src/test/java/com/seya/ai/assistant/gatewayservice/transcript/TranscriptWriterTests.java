@@ -0,0 +1,158 @@
+package com.seya.ai.assistant.gatewayservice.transcript;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import reactor.core.publisher.Flux;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TranscriptWriterTests {
+
+	// copies of every batch handed to saveAll (the writer reuses its list)
+	private final List<List<ChatTurn>> saved = new CopyOnWriteArrayList<>();
+
+	@SuppressWarnings("unchecked")
+	private TranscriptWriter writer(int queueCapacity, int batchSize, long maxDelayMs, CountDownLatch blockSaves) {
+		ChatTurnRepository repository = mock(ChatTurnRepository.class);
+		doAnswer(invocation -> {
+			blockSaves.await(5, TimeUnit.SECONDS);
+			saved.add(new ArrayList<>((List<ChatTurn>) invocation.getArgument(0)));
+			return invocation.getArgument(0);
+		}).when(repository).saveAll(anyList());
+		ObjectProvider<ChatTurnRepository> provider = mock(ObjectProvider.class);
+		when(provider.getIfAvailable()).thenReturn(repository);
+		return new TranscriptWriter(provider, true, queueCapacity, batchSize, maxDelayMs, 5000);
+	}
+
+	private static ChatTurn turn(int i) {
+		return new ChatTurn("c", null, "r" + i, "u", "q", "a", 1, "complete", null, Instant.now(), 1L, 2L);
+	}
+
+	@Test
+	void savesInBatchesAndFlushesTheRestOnShutdown() throws Exception {
+		TranscriptWriter writer = writer(1000, 100, 60_000, new CountDownLatch(0));
+		for (int i = 0; i < 250; i++) {
+			assertThat(writer.submit(turn(i))).isTrue();
+		}
+		writer.shutdown();
+
+		assertThat(saved).allSatisfy(batch -> assertThat(batch).hasSizeLessThanOrEqualTo(100));
+		assertThat(saved.stream().mapToInt(List::size).sum()).isEqualTo(250);
+		assertThat(writer.written()).isEqualTo(250);
+		assertThat(writer.batches()).isEqualTo(saved.size());
+	}
+
+	@Test
+	void partialBatchIsWrittenAfterMaxDelay() throws Exception {
+		TranscriptWriter writer = writer(1000, 100, 20, new CountDownLatch(0));
+		writer.submit(turn(1));
+		writer.submit(turn(2));
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (writer.written() < 2 && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		assertThat(saved).hasSize(1);
+		assertThat(saved.get(0)).hasSize(2);
+		writer.shutdown();
+	}
+
+	@Test
+	void fullQueueDropsInsteadOfBlocking() throws Exception {
+		CountDownLatch blockSaves = new CountDownLatch(1);
+		TranscriptWriter writer = writer(2, 1, 0, blockSaves);
+		int accepted = 0;
+		for (int i = 0; i < 10; i++) {
+			if (writer.submit(turn(i))) {
+				accepted++;
+			}
+		}
+		// at most one turn in the writer's hands plus a full queue
+		assertThat(accepted).isBetween(2, 3);
+		assertThat(writer.dropped()).isEqualTo(10 - accepted);
+
+		blockSaves.countDown();
+		writer.shutdown();
+		assertThat(writer.written()).isEqualTo(accepted);
+	}
+
+	@Test
+	void turnsAreListedAsUnsavedUntilTheyAreSaved() throws Exception {
+		CountDownLatch blockSaves = new CountDownLatch(1);
+		TranscriptWriter writer = writer(10, 10, 0, blockSaves);
+		ChatTurn turn = new ChatTurn("c", "conv", "r", "u", "q", "a", 1, "complete", null, Instant.now(), 1L, 2L);
+		writer.submit(turn);
+		writer.submit(turn(1));
+
+		assertThat(writer.unsaved("u", "conv")).containsExactly(turn);
+		assertThat(writer.unsaved("other", "conv")).isEmpty();
+
+		blockSaves.countDown();
+		writer.shutdown();
+		assertThat(writer.unsaved("u", "conv")).isEmpty();
+	}
+
+	@Test
+	void recordsTheTurnWhenTheStreamEnds() throws Exception {
+		TranscriptWriter writer = writer(10, 10, 0, new CountDownLatch(0));
+		assertThat(writer.record("c", "conv", "r", "u", "q", Flux.just("Hel", "lo")).collectList().block())
+				.containsExactly("Hel", "lo");
+		writer.shutdown();
+
+		assertThat(saved).hasSize(1);
+		ChatTurn turn = saved.get(0).get(0);
+		assertThat(turn.getAnswer()).isEqualTo("Hello");
+		assertThat(turn.getTokens()).isEqualTo(2);
+		assertThat(turn.getOutcome()).isEqualTo("complete");
+		assertThat(turn.getTtftMs()).isNotNull();
+		assertThat(turn.getConversationId()).isEqualTo("conv");
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void aFailedBatchIsRetriedRowByRowSoOnlyTheBadTurnIsLost() throws Exception {
+		ChatTurnRepository repository = mock(ChatTurnRepository.class);
+		List<String> savedOneByOne = new CopyOnWriteArrayList<>();
+		doAnswer(invocation -> {
+			throw new IllegalStateException("value too long");
+		}).when(repository).saveAll(anyList());
+		doAnswer(invocation -> {
+			ChatTurn turn = invocation.getArgument(0);
+			if (turn.getRequestId().equals("r1")) {
+				throw new IllegalStateException("value too long");
+			}
+			savedOneByOne.add(turn.getRequestId());
+			return turn;
+		}).when(repository).save(any(ChatTurn.class));
+		ObjectProvider<ChatTurnRepository> provider = mock(ObjectProvider.class);
+		when(provider.getIfAvailable()).thenReturn(repository);
+		TranscriptWriter writer = new TranscriptWriter(provider, true, 10, 10, 60_000, 5000);
+
+		for (int i = 0; i < 3; i++) {
+			writer.submit(turn(i));
+		}
+		writer.shutdown();
+
+		assertThat(savedOneByOne).containsExactly("r0", "r2");
+		assertThat(writer.written()).isEqualTo(2);
+		assertThat(writer.failed()).isEqualTo(1);
+	}
+
+	@Test
+	void longErrorMessagesAreCutToFitTheColumn() {
+		ChatTurn turn = new ChatTurn("c", null, "r", "u", "q", "", 0, "error", "x".repeat(5000), Instant.now(), null, 1L);
+		assertThat(turn.getError()).hasSize(255);
+	}
+}
@@ -0,0 +1,207 @@
+package com.seya.ai.assistant.gatewayservice.ws;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.seya.ai.assistant.gatewayservice.config.TierProperties;
+import com.seya.ai.assistant.gatewayservice.infra.SimpleRateLimiter;
+import com.seya.ai.assistant.gatewayservice.infra.StreamRejectedException;
+import com.seya.ai.assistant.gatewayservice.infra.TokenBudgetLimiter;
+import com.seya.ai.assistant.gatewayservice.infra.UserTierResolver;
+import com.seya.ai.assistant.gatewayservice.service.ChatStreamService;
+import com.seya.ai.assistant.gatewayservice.transcript.TranscriptWriter;
+import io.grpc.Status;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.HandshakeInfo;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.adapter.AbstractWebSocketSession;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ChatWebSocketHandlerTests {
+
+	private final ObjectMapper om = new ObjectMapper();
+	private final TokenCoalescer coalescer = new TokenCoalescer(false, 25, 64, 2048, 60);
+
+	// upstream answers started and cancelled
+	private final AtomicInteger started = new AtomicInteger();
+	private final AtomicInteger cancelled = new AtomicInteger();
+
+	@AfterEach
+	void shutdown() {
+		coalescer.shutdown();
+	}
+
+	// every answer is one token, then keeps generating until cancelled
+	private Flux<String> endlessAnswer() {
+		return Flux.just("Hello")
+				.concatWith(Flux.never())
+				.doOnSubscribe(s -> started.incrementAndGet())
+				.doOnCancel(cancelled::incrementAndGet);
+	}
+
+	private ChatWebSocketHandler handler() {
+		return handler(this::endlessAnswer);
+	}
+
+	// one slot per session and no queue, so a request holding on to its slot shows as too_many_requests
+	private ChatWebSocketHandler handler(Supplier<Flux<String>> answers) {
+		ChatStreamService chatStreams = mock(ChatStreamService.class);
+		when(chatStreams.stream(any(), any(), any(), any(), any())).thenAnswer(invocation -> answers.get());
+		SimpleRateLimiter rateLimiter = mock(SimpleRateLimiter.class);
+		when(rateLimiter.tryConsume(any())).thenReturn(true);
+		TokenBudgetLimiter tokenBudget = mock(TokenBudgetLimiter.class);
+		when(tokenBudget.hasBudget(any())).thenReturn(true);
+		TranscriptWriter transcripts = mock(TranscriptWriter.class);
+		when(transcripts.record(any(), any(), any(), any(), any(), any())).thenAnswer(invocation -> invocation.getArgument(5));
+		// not resumable, the answer streams straight from upstream
+		ResumeRegistry resumes = mock(ResumeRegistry.class);
+
+		return new ChatWebSocketHandler(chatStreams, rateLimiter, tokenBudget, coalescer, resumes, transcripts,
+				new UserTierResolver(new TierProperties("free", Map.of(), Map.of(), Map.of())), new SimpleMeterRegistry(),
+				1, 0);
+	}
+
+	private List<Map<?, ?>> parse(List<String> frames) throws Exception {
+		List<Map<?, ?>> parsed = new ArrayList<>();
+		for (String frame : frames) {
+			parsed.add(om.readValue(frame, Map.class));
+		}
+		return parsed;
+	}
+
+	@Test
+	void cancelStopsTheUpstreamCallAndFreesTheSlotAndTheRequestId() throws Exception {
+		FakeSession session = new FakeSession();
+		Disposable connection = handler().handle(session).subscribe();
+		try {
+			session.deliver("{\"type\":\"start\",\"requestId\":\"r1\",\"userId\":\"u\",\"query\":\"hi\"}");
+			assertThat(started).hasValue(1);
+
+			session.deliver("{\"type\":\"cancel\",\"requestId\":\"r1\"}");
+			assertThat(cancelled).hasValue(1);
+
+			// the id and the only slot of the session are free again, so the same request can start over
+			session.deliver("{\"type\":\"start\",\"requestId\":\"r1\",\"userId\":\"u\",\"query\":\"hi\"}");
+			assertThat(started).hasValue(2);
+
+			assertThat(parse(session.sent)).containsExactly(
+					Map.of("type", "connected", "correlationId", parse(session.sent).get(0).get("correlationId")),
+					Map.of("type", "accepted", "requestId", "r1"),
+					Map.of("type", "token", "requestId", "r1", "offset", 0, "data", "Hello"),
+					// acknowledged under the request's id, and no 'complete' follows for the cancelled answer
+					Map.of("type", "cancel_ack", "requestId", "r1", "cancelled", true),
+					Map.of("type", "accepted", "requestId", "r1"),
+					Map.of("type", "token", "requestId", "r1", "offset", 0, "data", "Hello"));
+		} finally {
+			connection.dispose();
+		}
+		// closing the socket cancels what is still running
+		assertThat(cancelled).hasValue(2);
+	}
+
+	@Test
+	void cancellingAnUnknownRequestChangesNothing() throws Exception {
+		FakeSession session = new FakeSession();
+		Disposable connection = handler().handle(session).subscribe();
+		try {
+			session.deliver("{\"type\":\"start\",\"requestId\":\"r1\",\"userId\":\"u\",\"query\":\"hi\"}");
+			session.deliver("{\"type\":\"cancel\",\"requestId\":\"r2\"}");
+			session.deliver("{\"type\":\"start\",\"requestId\":\"r3\",\"userId\":\"u\",\"query\":\"hi\"}");
+
+			assertThat(cancelled).hasValue(0);
+			assertThat(parse(session.sent)).endsWith(
+					Map.of("type", "cancel_ack", "requestId", "r2", "cancelled", false),
+					Map.of("type", "error", "requestId", "r3", "error", "too_many_requests"));
+		} finally {
+			connection.dispose();
+		}
+	}
+
+	@Test
+	void failuresReachTheClientAsStableCodesOnly() throws Exception {
+		List<Throwable> failures = List.of(
+				new StreamRejectedException("overloaded"),
+				new TimeoutException("idle_timeout"),
+				Status.INTERNAL.withDescription("connection to 10.0.0.7:50051 reset").asRuntimeException(),
+				new TimeoutException("Did not observe any item or terminal signal within 300000ms"));
+		AtomicInteger next = new AtomicInteger();
+		FakeSession session = new FakeSession();
+		Disposable connection = handler(() -> Flux.error(failures.get(next.getAndIncrement())))
+				.handle(session).subscribe();
+		try {
+			for (int i = 0; i < failures.size(); i++) {
+				session.deliver("{\"type\":\"start\",\"requestId\":\"r" + i + "\",\"userId\":\"u\",\"query\":\"hi\"}");
+			}
+
+			assertThat(parse(session.sent)).filteredOn(frame -> "error".equals(frame.get("type")))
+					.extracting(frame -> (Object) frame.get("error"))
+					.containsExactly("overloaded", "idle_timeout", "upstream_error", "upstream_error");
+		} finally {
+			connection.dispose();
+		}
+	}
+
+	/**
+	 * WebSocket session fed by {@link #deliver(String)}, recording the text of every frame sent.
+	 */
+	private static final class FakeSession extends AbstractWebSocketSession<Object> {
+
+		private final Sinks.Many<WebSocketMessage> inbound = Sinks.many().unicast().onBackpressureBuffer();
+		final List<String> sent = new CopyOnWriteArrayList<>();
+
+		FakeSession() {
+			super(new Object(), "session-1", new HandshakeInfo(URI.create("ws://localhost/ws"), new HttpHeaders(),
+					Mono.empty(), null), DefaultDataBufferFactory.sharedInstance);
+		}
+
+		void deliver(String json) {
+			inbound.tryEmitNext(textMessage(json));
+		}
+
+		@Override
+		public Flux<WebSocketMessage> receive() {
+			return inbound.asFlux();
+		}
+
+		@Override
+		public Mono<Void> send(Publisher<WebSocketMessage> messages) {
+			return Flux.from(messages).doOnNext(message -> sent.add(message.getPayloadAsText())).then();
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public Mono<Void> close(CloseStatus status) {
+			return Mono.empty();
+		}
+
+		@Override
+		public Mono<CloseStatus> closeStatus() {
+			return Mono.never();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.seya.ai.assistant.gatewayservice.ws;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JsonFrameEncoderTests {
+
+	private static final List<String> TRICKY = List.of(
+			"plain", " \"quoted\"", "back\\slash", "line\nbreak\r\n\t", "\u0000\u0001\u001f\b\f", "\u007f",
+			"café", "日本語", "😀👍🏽", "lone \ud83d high", "lone \ude00 low", "", "</script>");
+
+	private final ObjectMapper om = new ObjectMapper();
+	private final JsonFrameEncoder encoder = new JsonFrameEncoder(DefaultDataBufferFactory.sharedInstance, "req-\"1\"");
+
+	@Test
+	void singleTokenMatchesJackson() throws Exception {
+		for (String token : TRICKY) {
+			String expected = "{\"type\":\"token\",\"requestId\":" + om.writeValueAsString("req-\"1\"")
+					+ ",\"offset\":7,\"data\":" + om.writeValueAsString(token) + "}";
+			assertThat(bytes(encoder.token(7, token))).isEqualTo(expected.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	void coalescedTokensMatchJackson() throws Exception {
+		String expected = "{\"type\":\"tokens\",\"requestId\":" + om.writeValueAsString("req-\"1\"")
+				+ ",\"offset\":0,\"data\":" + om.writeValueAsString(TRICKY) + "}";
+		assertThat(bytes(encoder.tokens(0, TRICKY))).isEqualTo(expected.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void offsetIsWrittenInDecimal() throws Exception {
+		for (long offset : new long[] {1, 9, 10, 4096, 1_000_000_007L, Long.MAX_VALUE}) {
+			Map<?, ?> frame = om.readValue(bytes(encoder.tokens(offset, List.of("a", "b"))), Map.class);
+			assertThat(((Number) frame.get("offset")).longValue()).isEqualTo(offset);
+			assertThat(frame.get("data")).isEqualTo(List.of("a", "b"));
+		}
+	}
+
+	@Test
+	void acceptedCompleteAndErrorFrames() throws Exception {
+		assertThat(om.readValue(bytes(encoder.complete()), Map.class))
+				.isEqualTo(Map.of("type", "complete", "requestId", "req-\"1\""));
+		assertThat(om.readValue(bytes(encoder.accepted()), Map.class))
+				.isEqualTo(Map.of("type", "accepted", "requestId", "req-\"1\""));
+		assertThat(om.readValue(bytes(encoder.error("idle_timeout")), Map.class))
+				.isEqualTo(Map.of("type", "error", "requestId", "req-\"1\"", "error", "idle_timeout"));
+		assertThat(new String(bytes(encoder.error(null)), StandardCharsets.UTF_8)).endsWith("\"error\":null}");
+	}
+
+	@Test
+	void escapedTokensFitTheFrameBuffer() throws Exception {
+		String longToken = "\u0001".repeat(10_000);
+		assertThat(om.readValue(bytes(encoder.token(0, longToken)), Map.class).get("data")).isEqualTo(longToken);
+		assertThat(om.readValue(bytes(encoder.tokens(0, List.of(longToken, longToken))), Map.class).get("data"))
+				.isEqualTo(List.of(longToken, longToken));
+	}
+
+	@Test
+	void pooledDirectBuffersGetTheSameBytes() throws Exception {
+		JsonFrameEncoder pooled = new JsonFrameEncoder(new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT),
+				"req-\"1\"");
+		for (String token : TRICKY) {
+			assertThat(bytes(pooled.token(7, token))).isEqualTo(bytes(encoder.token(7, token)));
+		}
+		assertThat(bytes(pooled.tokens(0, TRICKY))).isEqualTo(bytes(encoder.tokens(0, TRICKY)));
+	}
+
+	private static byte[] bytes(WebSocketMessage message) {
+		assertThat(message.getType()).isEqualTo(WebSocketMessage.Type.TEXT);
+		byte[] bytes = new byte[message.getPayload().readableByteCount()];
+		message.getPayload().read(bytes);
+		DataBufferUtils.release(message.getPayload());
+		return bytes;
+	}
+}
@@ -0,0 +1,52 @@
+package com.seya.ai.assistant.gatewayservice.ws;
+
+import com.example.gateway.chat.ChatFrame;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProtobufFrameEncoderTests {
+
+	private final ProtobufFrameEncoder encoder = new ProtobufFrameEncoder(DefaultDataBufferFactory.sharedInstance, "req-1");
+
+	@Test
+	void framesEqualGeneratedSerialization() {
+		List<String> tokens = List.of("plain", " \"quoted\"", "日本語", "😀", "", "lone \ud83d high");
+		assertThat(bytes(encoder.tokens(0, tokens))).isEqualTo(ChatFrame.newBuilder()
+				.setRequestId("req-1").addAllTokens(tokens).build().toByteArray());
+		assertThat(bytes(encoder.tokens(300, tokens))).isEqualTo(ChatFrame.newBuilder()
+				.setRequestId("req-1").addAllTokens(tokens).setOffset(300).build().toByteArray());
+		assertThat(bytes(encoder.tokens(0, List.of("one")))).isEqualTo(ChatFrame.newBuilder()
+				.setRequestId("req-1").addTokens("one").build().toByteArray());
+		assertThat(bytes(encoder.error("idle_timeout"))).isEqualTo(ChatFrame.newBuilder()
+				.setType(ChatFrame.Type.ERROR).setRequestId("req-1").setError("idle_timeout").build().toByteArray());
+		assertThat(bytes(encoder.complete())).isEqualTo(ChatFrame.newBuilder()
+				.setType(ChatFrame.Type.COMPLETE).setRequestId("req-1").build().toByteArray());
+		assertThat(bytes(encoder.accepted())).isEqualTo(ChatFrame.newBuilder()
+				.setType(ChatFrame.Type.ACCEPTED).setRequestId("req-1").build().toByteArray());
+	}
+
+	@Test
+	void nullErrorLeavesFieldEmpty() throws Exception {
+		ChatFrame frame = ChatFrame.parseFrom(bytes(encoder.error(null)));
+		assertThat(frame.getType()).isEqualTo(ChatFrame.Type.ERROR);
+		assertThat(frame.getError()).isEmpty();
+	}
+
+	@Test
+	void growsForLargeFrames() throws Exception {
+		List<String> tokens = List.of("x".repeat(1000), "y".repeat(1000));
+		assertThat(ChatFrame.parseFrom(bytes(encoder.tokens(0, tokens))).getTokensList()).isEqualTo(tokens);
+	}
+
+	private static byte[] bytes(WebSocketMessage message) {
+		assertThat(message.getType()).isEqualTo(WebSocketMessage.Type.BINARY);
+		byte[] bytes = new byte[message.getPayload().readableByteCount()];
+		message.getPayload().read(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,214 @@
+package com.seya.ai.assistant.gatewayservice.ws;
+
+import com.seya.ai.assistant.gatewayservice.config.TierProperties;
+import com.seya.ai.assistant.gatewayservice.infra.AdaptiveConcurrencyLimiter;
+import com.seya.ai.assistant.gatewayservice.infra.UserTierResolver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+import reactor.test.subscriber.TestSubscriber;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResumeRegistryTests {
+
+	private VirtualTimeScheduler time;
+
+	// the answer as generated upstream, and how often / whether it was subscribed and cancelled
+	private final Sinks.Many<String> upstream = Sinks.many().unicast().onBackpressureBuffer();
+	private final AtomicInteger calls = new AtomicInteger();
+	private final AtomicBoolean upstreamCancelled = new AtomicBoolean();
+
+	@BeforeEach
+	void virtualTime() {
+		time = VirtualTimeScheduler.getOrSet();
+	}
+
+	@AfterEach
+	void realTime() {
+		VirtualTimeScheduler.reset();
+	}
+
+	private Flux<String> answer() {
+		return Flux.defer(() -> {
+			calls.incrementAndGet();
+			return upstream.asFlux();
+		}).doOnCancel(() -> upstreamCancelled.set(true));
+	}
+
+	private static ResumeRegistry registry(long maxBytes) {
+		return new ResumeRegistry(true, 30, 120, 100, maxBytes);
+	}
+
+	@Test
+	void resumeFromOffsetGetsTheRestWithoutASecondCall() {
+		ResumeRegistry registry = registry(1 << 20);
+		ResumeRegistry.ResumableStream stream = registry.open("c", "r", answer());
+		List<String> first = new CopyOnWriteArrayList<>();
+		Disposable lost = stream.from(0).subscribe(first::add);
+		upstream.tryEmitNext("a");
+		upstream.tryEmitNext("b");
+		lost.dispose();
+
+		// what upstream generates for the client that is gone waits there
+		time.advanceTimeBy(Duration.ofSeconds(10));
+		upstream.tryEmitNext("c");
+		assertThat(registry.resumed()).isZero();
+
+		ResumeRegistry.ResumableStream found = registry.find("c", "r");
+		assertThat(found).isSameAs(stream);
+		StepVerifier.create(found.resume(1))
+				.expectNext("b", "c")
+				.then(() -> {
+					upstream.tryEmitNext("d");
+					upstream.tryEmitComplete();
+				})
+				.expectNext("d")
+				.verifyComplete();
+
+		assertThat(first).containsExactly("a", "b");
+		assertThat(calls).hasValue(1);
+		assertThat(upstreamCancelled).isFalse();
+		assertThat(registry.resumed()).isEqualTo(1);
+
+		// finished answers stay resumable for the ttl
+		StepVerifier.create(registry.find("c", "r").resume(3)).expectNext("d").verifyComplete();
+		time.advanceTimeBy(Duration.ofSeconds(120));
+		assertThat(registry.find("c", "r")).isNull();
+		assertThat(registry.sizeBytes()).isZero();
+	}
+
+	@Test
+	void upstreamIsCancelledWhenNobodyResumesWithinTheGracePeriod() {
+		ResumeRegistry registry = registry(1 << 20);
+		ResumeRegistry.ResumableStream stream = registry.open("c", "r", answer());
+		Disposable lost = stream.from(0).subscribe();
+		upstream.tryEmitNext("a");
+		lost.dispose();
+
+		time.advanceTimeBy(Duration.ofSeconds(29));
+		assertThat(upstreamCancelled).isFalse();
+		time.advanceTimeBy(Duration.ofSeconds(1));
+
+		assertThat(upstreamCancelled).isTrue();
+		assertThat(registry.find("c", "r")).isNull();
+		assertThat(registry.expired()).isEqualTo(1);
+		assertThat(registry.sizeBytes()).isZero();
+	}
+
+	@Test
+	void resumeWithinTheGracePeriodCallsOffTheTimer() {
+		ResumeRegistry registry = registry(1 << 20);
+		ResumeRegistry.ResumableStream stream = registry.open("c", "r", answer());
+		stream.from(0).subscribe().dispose();
+
+		time.advanceTimeBy(Duration.ofSeconds(20));
+		Disposable resumed = registry.find("c", "r").resume(0).subscribe();
+		time.advanceTimeBy(Duration.ofSeconds(60));
+
+		assertThat(upstreamCancelled).isFalse();
+		assertThat(registry.expired()).isZero();
+		resumed.dispose();
+	}
+
+	@Test
+	void cancelStopsTheUpstreamAndForgetsTheAnswer() {
+		ResumeRegistry registry = registry(1 << 20);
+		ResumeRegistry.ResumableStream stream = registry.open("c", "r", answer());
+		Disposable reader = stream.from(0).subscribe();
+		upstream.tryEmitNext("a");
+
+		stream.cancel();
+
+		assertThat(upstreamCancelled).isTrue();
+		assertThat(registry.find("c", "r")).isNull();
+		assertThat(registry.size()).isZero();
+		assertThat(registry.sizeBytes()).isZero();
+		reader.dispose();
+	}
+
+	@Test
+	void answersNobodyReadsAreDroppedToStayWithinMaxBytes() {
+		// one 10-char token is 92 bytes; room for two
+		ResumeRegistry registry = registry(200);
+		ResumeRegistry.ResumableStream done = registry.open("c", "done", Flux.just("0123456789"));
+		done.from(0).blockLast();
+		Sinks.Many<String> live = Sinks.many().unicast().onBackpressureBuffer();
+		ResumeRegistry.ResumableStream reading = registry.open("c", "live", live.asFlux());
+		Disposable reader = reading.from(0).subscribe();
+		live.tryEmitNext("0123456789");
+		live.tryEmitNext("0123456789");
+
+		// over budget: the finished answer goes, the one being read stays
+		assertThat(registry.find("c", "done")).isNull();
+		assertThat(registry.find("c", "live")).isSameAs(reading);
+		assertThat(registry.evicted()).isEqualTo(1);
+
+		// live answers alone over budget: new answers are not resumable
+		live.tryEmitNext("0123456789");
+		assertThat(registry.open("c", "next", Flux.just("x"))).isNull();
+
+		reader.dispose();
+	}
+
+	@Test
+	void upstreamIsAskedForNoMoreThanTheReaderWants() {
+		AtomicLong requested = new AtomicLong();
+		ResumeRegistry registry = registry(1 << 20);
+		ResumeRegistry.ResumableStream stream = registry.open("c", "r",
+				Flux.range(0, 1000).map(String::valueOf).doOnRequest(requested::addAndGet));
+		TestSubscriber<String> lost = TestSubscriber.<String>builder().initialRequest(3).build();
+		stream.from(0).subscribe(lost);
+		assertThat(requested).hasValue(3);
+
+		// nobody reads: nothing more is asked for
+		lost.cancel();
+		time.advanceTimeBy(Duration.ofSeconds(10));
+		assertThat(requested).hasValue(3);
+
+		StepVerifier.create(registry.find("c", "r").resume(2), 2)
+				.expectNext("2", "3")
+				.thenCancel()
+				.verify();
+		assertThat(requested).hasValue(4);
+	}
+
+	@Test
+	void theConcurrencySlotIsGivenBackWhileNobodyReads() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 0.5, 2.0, 10, 5000, 10,
+				new UserTierResolver(new TierProperties("free", Map.of(), Map.of(), Map.of())));
+		ResumeRegistry registry = registry(1 << 20);
+		ResumeRegistry.ResumableStream stream = registry.open("c", "r", limiter.limit("u", answer()));
+		Disposable lost = stream.from(0).subscribe();
+		assertThat(limiter.inFlight()).isEqualTo(1);
+
+		lost.dispose();
+		assertThat(limiter.inFlight()).isZero();
+		Disposable other = limiter.limit("v", Flux.never()).subscribe();
+		assertThat(limiter.inFlight()).isEqualTo(1);
+
+		// the answer is running already, so a resume takes its slot back even with the limit full
+		Disposable resumed = registry.find("c", "r").resume(0).subscribe();
+		assertThat(limiter.inFlight()).isEqualTo(2);
+		upstream.tryEmitComplete();
+		assertThat(limiter.inFlight()).isEqualTo(1);
+
+		resumed.dispose();
+		other.dispose();
+		assertThat(limiter.inFlight()).isZero();
+		assertThat(upstreamCancelled).isFalse();
+	}
+}
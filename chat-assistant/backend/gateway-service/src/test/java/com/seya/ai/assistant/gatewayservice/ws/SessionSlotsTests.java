@@ -0,0 +1,49 @@
+package com.seya.ai.assistant.gatewayservice.ws;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SessionSlotsTests {
+
+	private static boolean isReady(SessionSlots.Ticket ticket) {
+		// a ticket that is already ready wins the race, as it is subscribed first
+		return Mono.firstWithSignal(ticket.ready().thenReturn(true), Mono.just(false)).block();
+	}
+
+	@Test
+	void startsBeyondTheCapWaitInOrder() {
+		SessionSlots slots = new SessionSlots(2, 10);
+		SessionSlots.Ticket a = slots.tryEnter();
+		SessionSlots.Ticket b = slots.tryEnter();
+		SessionSlots.Ticket c = slots.tryEnter();
+		SessionSlots.Ticket d = slots.tryEnter();
+
+		assertThat(isReady(a)).isTrue();
+		assertThat(isReady(b)).isTrue();
+		assertThat(isReady(c)).isFalse();
+		assertThat(slots.queued()).isEqualTo(2);
+
+		a.release();
+		assertThat(isReady(c)).isTrue();
+		assertThat(isReady(d)).isFalse();
+		assertThat(slots.active()).isEqualTo(2);
+	}
+
+	@Test
+	void fullQueueRefusesAndAbandonedWaitersLeaveIt() {
+		SessionSlots slots = new SessionSlots(1, 1);
+		SessionSlots.Ticket running = slots.tryEnter();
+		SessionSlots.Ticket waiting = slots.tryEnter();
+		assertThat(slots.tryEnter()).isNull();
+
+		waiting.release();
+		assertThat(slots.queued()).isZero();
+		assertThat(slots.tryEnter()).isNotNull();
+
+		running.release();
+		running.release();
+		assertThat(slots.active()).isEqualTo(1);
+	}
+}
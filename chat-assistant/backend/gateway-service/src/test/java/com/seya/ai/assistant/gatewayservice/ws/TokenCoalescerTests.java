@@ -0,0 +1,97 @@
+package com.seya.ai.assistant.gatewayservice.ws;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenCoalescerTests {
+
+	private TokenCoalescer coalescer;
+
+	private TokenCoalescer coalescer(int maxTokens, int maxBytes) {
+		coalescer = new TokenCoalescer(true, 25, maxTokens, maxBytes, 3600);
+		return coalescer;
+	}
+
+	@AfterEach
+	void shutdown() {
+		if (coalescer != null) {
+			coalescer.shutdown();
+		}
+	}
+
+	@Test
+	void firstTokenGoesOutAloneAndTheRestByCount() {
+		TokenCoalescer coalescer = coalescer(3, 2048);
+		StepVerifier.withVirtualTime(() -> coalescer.coalesce(Flux.just("a", "b", "c", "d", "e", "f", "g", "h")))
+				.expectNext(List.of("a"))
+				.expectNext(List.of("b", "c", "d"))
+				.expectNext(List.of("e", "f", "g"))
+				.expectNext(List.of("h"))
+				.verifyComplete();
+		assertThat(coalescer.tokensIn()).isEqualTo(8);
+		assertThat(coalescer.framesOut()).isEqualTo(4);
+	}
+
+	@Test
+	void partialBufferIsFlushedAfterMaxDelay() {
+		TokenCoalescer coalescer = coalescer(64, 2048);
+		StepVerifier.withVirtualTime(() -> coalescer.coalesce(Flux.just("a", "b")
+						.concatWith(Mono.just("c").delayElement(Duration.ofMillis(100)))))
+				.expectNext(List.of("a"))
+				.expectNoEvent(Duration.ofMillis(24))
+				.thenAwait(Duration.ofMillis(1))
+				.expectNext(List.of("b"))
+				.thenAwait(Duration.ofMillis(75))
+				.expectNext(List.of("c"))
+				.verifyComplete();
+	}
+
+	@Test
+	void buffersLargerThanMaxBytesAreSplit() {
+		TokenCoalescer coalescer = coalescer(64, 4);
+		StepVerifier.withVirtualTime(() -> coalescer.coalesce(Flux.just("a", "bb", "cc", "d", "eeeee")))
+				.expectNext(List.of("a"))
+				.expectNext(List.of("bb", "cc"))
+				.expectNext(List.of("d"))
+				// a token larger than max-bytes still goes out, on its own
+				.expectNext(List.of("eeeee"))
+				.verifyComplete();
+	}
+
+	@Test
+	void clientThatStopsReadingIsWaitedForNotFailed() {
+		TokenCoalescer coalescer = coalescer(3, 2048);
+		AtomicInteger produced = new AtomicInteger();
+		List<String> received = new ArrayList<>();
+		StepVerifier.withVirtualTime(() -> coalescer.coalesce(Flux.range(0, 100)
+								.map(i -> "t" + i)
+								.delayElements(Duration.ofMillis(10))
+								.doOnNext(t -> produced.incrementAndGet())),
+						1)
+				.thenAwait(Duration.ofMillis(10))
+				.assertNext(frame -> assertThat(frame).containsExactly("t0"))
+				// no demand for a long time: buffers time out but nothing may fail, and little is pulled upstream
+				.thenAwait(Duration.ofSeconds(1))
+				.then(() -> assertThat(produced.get()).isLessThanOrEqualTo(1 + 4 * 3))
+				.thenRequest(Long.MAX_VALUE)
+				.thenAwait(Duration.ofSeconds(2))
+				.thenConsumeWhile(frame -> received.addAll(frame))
+				.verifyComplete();
+
+		List<String> expected = new ArrayList<>();
+		for (int i = 1; i < 100; i++) {
+			expected.add("t" + i);
+		}
+		assertThat(received).isEqualTo(expected);
+	}
+}
@@ -13,6 +13,40 @@ import llm_pb2_grpc
 
 openai.api_key = os.getenv("OPENAI_API_KEY")
 
+# the gateway's time-to-first-token deadline; past it the gateway has given up on the answer
+TTFT_TIMEOUT_HEADER = "x-ttft-timeout-ms"
+
+
+def ttft_deadline(context: grpc.aio.ServicerContext):
+    """Event-loop time by which the first token must be out, or None if the caller set no TTFT deadline."""
+    for key, value in context.invocation_metadata() or ():
+        if key == TTFT_TIMEOUT_HEADER:
+            return asyncio.get_running_loop().time() + int(value) / 1000.0
+    return None
+
+
+async def before(deadline, awaitable):
+    if deadline is None:
+        return await awaitable
+    return await asyncio.wait_for(awaitable, max(0.0, deadline - asyncio.get_running_loop().time()))
+
+
+def prompt_messages(request):
+    """The retrieved context as the system message, then the conversation's earlier turns, then the question."""
+    system_prompt = (
+        "You are an assistant that answers using the following context.\n\n"
+        "VECTOR DB CONTEXT:\n" + "\n".join(request.vector_contexts) + "\n\n"
+        "SERPER CONTEXT:\n" + "\n".join(request.serper_contexts)
+    )
+    messages = [{"role": "system", "content": system_prompt}]
+    # oldest first, already cut to the gateway's history budget
+    for turn in request.history:
+        messages.append({"role": "user", "content": turn.query})
+        messages.append({"role": "assistant", "content": turn.answer})
+    messages.append({"role": "user", "content": request.user_query})
+    return messages
+
+
 # --- gRPC Servicer implementation ---
 class LLMServicer(llm_pb2_grpc.LLMServiceServicer):
     async def StreamGenerate(self, request, context: grpc.aio.ServicerContext) -> AsyncIterable[llm_pb2.LLMResponse]:
@@ -20,32 +54,33 @@ class LLMServicer(llm_pb2_grpc.LLMServiceServicer):
         Handle LLMRequest -> stream of LLMResponse tokens.
         """
         correlation_id = request.correlation_id
-
-        # Combine contexts into one prompt
-        system_prompt = (
-            "You are an assistant that answers using the following context.\n\n"
-            "VECTOR DB CONTEXT:\n" + "\n".join(request.vector_contexts) + "\n\n"
-            "SERPER CONTEXT:\n" + "\n".join(request.serper_contexts) + "\n\n"
-            "USER QUERY:\n" + request.user_query
-        )
+        deadline = ttft_deadline(context)
 
         client = AsyncOpenAI(api_key=openai.api_key)
 
         try:
-            stream = await client.chat.completions.create(
+            # the TTFT deadline covers the call to OpenAI and the wait for its first token
+            stream = await before(deadline, client.chat.completions.create(
                 model=request.model_name or "gpt-4o-mini",
-                messages=[{"role": "system", "content": system_prompt}],
-                temperature=request.temperature or 0.2,
+                messages=prompt_messages(request),
+                temperature=request.temperature if request.HasField("temperature") else 0.2,
                 max_tokens=request.max_tokens or 512,
+                stop=list(request.stop) or None,
                 stream=True,
-            )
-
-            async for event in stream:
-                if event.choices[0].delta and "content" in event.choices[0].delta:
-                    token = event.choices[0].delta.content
+            ))
+
+            events = stream.__aiter__()
+            while True:
+                try:
+                    event = await before(deadline, events.__anext__())
+                except StopAsyncIteration:
+                    break
+                if event.choices and event.choices[0].delta and event.choices[0].delta.content:
+                    # from the first token on, only the gateway's idle and total deadlines apply
+                    deadline = None
                     yield llm_pb2.LLMResponse(
                         correlation_id=correlation_id,
-                        token=token,
+                        token=event.choices[0].delta.content,
                         is_final=False,
                     )
 
@@ -56,6 +91,9 @@ class LLMServicer(llm_pb2_grpc.LLMServiceServicer):
                 is_final=True,
             )
 
+        except asyncio.TimeoutError:
+            # stop generating: nobody is waiting for this answer any more
+            await context.abort(grpc.StatusCode.DEADLINE_EXCEEDED, "ttft_timeout")
         except Exception as e:
             print(f"[Error] Generation failed: {e}")
             await context.abort(grpc.StatusCode.INTERNAL, str(e))